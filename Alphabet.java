@@ -1,4 +1,7 @@
 package enigma;
+
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -10,28 +13,44 @@ class Alphabet {
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        char[] charArray = chars.toCharArray();
-        for (int k = 0; k < charArray.length - 1; k++) {
-            int occur = 0;
-            char character = charArray[k];
-            for (char c: charArray) {
-                if (c == character) {
-                    occur += 1;
-                }
-                if (occur >= 2) {
-                    throw new EnigmaException("Duplicate character detected");
-                }
+        char max = 0;
+        for (int k = 0; k < chars.length(); k++) {
+            max = (char) Math.max(max, chars.charAt(k));
+        }
+        _index = new int[max + 1];
+        Arrays.fill(_index, -1);
+        for (int k = 0; k < chars.length(); k++) {
+            char c = chars.charAt(k);
+            if (_index[c] != -1) {
+                throw new EnigmaException("Duplicate character detected");
             }
+            _index[c] = k;
+        }
+        _chars = chars.toCharArray();
+        if (max < ASCII_LIMIT) {
+            _byteIndex = new int[1 << Byte.SIZE];
+            Arrays.fill(_byteIndex, -1);
+            System.arraycopy(_index, 0, _byteIndex, 0, _index.length);
+        } else {
+            _byteIndex = null;
         }
-        _chars = chars;
-        _size = chars.length();
     }
 
     /** characters. */
-    private String _chars;
+    private final char[] _chars;
+
+    /** Index of each character, or -1 for characters not in the
+     *  alphabet, indexed by character value up to the largest one I
+     *  contain. */
+    private final int[] _index;
+
+    /** Index of the character with each byte value (taken as unsigned),
+     *  or -1 for bytes not in the alphabet; null unless all my characters
+     *  are ASCII. */
+    private final int[] _byteIndex;
 
-    /** size. */
-    private int _size;
+    /** Characters less than this are ASCII. */
+    static final char ASCII_LIMIT = 0x80;
 
     /** A default alphabet of all upper-case characters. */
     Alphabet() {
@@ -40,24 +59,42 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _size;
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _chars.indexOf(ch) != -1;
+        return ch < _index.length && _index[ch] != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return _chars.charAt(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _chars.indexOf(ch);
+        return ch < _index.length ? _index[ch] : -1;
+    }
+
+    /** Returns true iff all my characters are ASCII, so that each may be
+     *  represented by a single byte in any ASCII-compatible encoding. */
+    boolean isAscii() {
+        return _byteIndex != null;
+    }
+
+    /** Returns the index of the character encoded as the single byte B,
+     *  or -1 if it is not in the alphabet.  Requires isAscii(). */
+    int toInt(byte b) {
+        return _byteIndex[b & 0xff];
+    }
+
+    /** Returns character number INDEX as a single byte, where
+     *  0 <= INDEX < size().  Requires isAscii(). */
+    byte toByte(int index) {
+        return (byte) _chars[index];
     }
 
 }
@@ -0,0 +1,96 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author Pauline Tang
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Assert that ALPHA holds exactly the characters of CHARS, in
+     *  order. */
+    private void checkAlphabet(Alphabet alpha, String chars) {
+        assertEquals(chars.length(), alpha.size());
+        for (int k = 0; k < chars.length(); k++) {
+            char c = chars.charAt(k);
+            assertTrue(msg("contains", "'%c'", c), alpha.contains(c));
+            assertEquals(msg("toInt", "'%c'", c), k, alpha.toInt(c));
+            assertEquals(msg("toChar", "%d", k), c, alpha.toChar(k));
+        }
+    }
+
+    /** Assert that ALPHA does not contain any of the characters of
+     *  CHARS. */
+    private void checkMissing(Alphabet alpha, String chars) {
+        for (int k = 0; k < chars.length(); k++) {
+            char c = chars.charAt(k);
+            assertFalse(msg("contains", "'\\u%04x'", (int) c),
+                        alpha.contains(c));
+            assertEquals(msg("toInt", "'\\u%04x'", (int) c),
+                         -1, alpha.toInt(c));
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testUpper() {
+        Alphabet alpha = new Alphabet();
+        checkAlphabet(alpha, UPPER_STRING);
+        assertTrue(alpha.isAscii());
+    }
+
+    @Test
+    public void testOutsideAlphabet() {
+        Alphabet alpha = new Alphabet("ACEG");
+        checkAlphabet(alpha, "ACEG");
+        checkMissing(alpha, "BDF\u0000 a0");
+    }
+
+    @Test
+    public void testAboveTable() {
+        Alphabet alpha = new Alphabet("ACEG");
+        checkMissing(alpha, "HZ\u007f\u0080\u00c4\u03a9\uffff");
+    }
+
+    @Test
+    public void testNonAscii() {
+        String chars = "A\u00c4\u00d6\u03a9\u20ac";
+        Alphabet alpha = new Alphabet(chars);
+        checkAlphabet(alpha, chars);
+        assertFalse(alpha.isAscii());
+        checkMissing(alpha, "BZ\u00c5\u03a8\u20ab\u20ad\uffff");
+    }
+
+    @Test
+    public void testBytes() {
+        Alphabet alpha = new Alphabet("ACEG.");
+        assertTrue(alpha.isAscii());
+        for (int k = 0; k < alpha.size(); k++) {
+            byte b = alpha.toByte(k);
+            assertEquals(alpha.toChar(k), (char) b);
+            assertEquals(k, alpha.toInt(b));
+        }
+        for (byte b : new byte[] {'B', 'a', 0, 0x7f, (byte) 0x80,
+                                  (byte) 0xc4, (byte) 0xff}) {
+            assertEquals(msg("toInt", "byte %d", b), -1, alpha.toInt(b));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicate() {
+        new Alphabet("ABCA");
+    }
+
+}
@@ -0,0 +1,99 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** What the attacks on Enigma messages (CribAttack, Bombe, and
+ *  CiphertextAttack) have in common: reading their texts, and the
+ *  machine setups they report.
+ *  @author Pauline Tang
+ */
+final class Attacks {
+
+    /** Not instantiable. */
+    private Attacks() {
+    }
+
+    /** Return the indices in ALPHABET of the characters of TEXT, ignoring
+     *  whitespace. */
+    static int[] indices(Alphabet alphabet, String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int k = 0; k < text.length(); k++) {
+            char ch = text.charAt(k);
+            if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            int ind = alphabet.toInt(ch);
+            if (ind == -1) {
+                throw error("character '%c' not in alphabet", ch);
+            }
+            result[n] = ind;
+            n += 1;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** A machine setup found by an attack: the rotors in each slot, their
+     *  initial settings, and a plugboard. */
+    static class Setup {
+
+        /** A setup with ROTORS in my slots at settings POSNS in ALPHABET,
+         *  each indexed by slot, and plugboard PLUGBOARD (null if
+         *  none). */
+        Setup(Rotor[] rotors, int[] posns, Alphabet alphabet,
+              Permutation plugboard) {
+            _rotors = new String[rotors.length];
+            StringBuilder setting = new StringBuilder();
+            for (int i = 0; i < rotors.length; i++) {
+                _rotors[i] = rotors[i].name();
+                if (i > 0) {
+                    setting.append(alphabet.toChar(posns[i]));
+                }
+            }
+            _setting = setting.toString();
+            StringBuilder cycles = new StringBuilder();
+            for (int c = 0; plugboard != null && c < plugboard.size(); c++) {
+                int d = plugboard.permute(c);
+                if (c < d) {
+                    cycles.append(cycles.length() == 0 ? "(" : " (")
+                        .append(alphabet.toChar(c))
+                        .append(alphabet.toChar(d)).append(')');
+                }
+            }
+            _plugboard = cycles.toString();
+        }
+
+        /** Return the names of my rotors, indexed by slot. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return my initial settings, as for Machine.setRotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my plugboard's cycles, as in a settings line. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return me as a settings line. */
+        @Override
+        public String toString() {
+            String line = "* " + String.join(" ", _rotors) + " " + _setting;
+            return _plugboard.isEmpty() ? line : line + " " + _plugboard;
+        }
+
+        /** Names of my rotors, indexed by slot. */
+        private final String[] _rotors;
+
+        /** Initial settings of my rotors, as for Machine.setRotors. */
+        private final String _setting;
+
+        /** Cycles of my plugboard, as in a settings line. */
+        private final String _plugboard;
+    }
+}
@@ -0,0 +1,396 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static enigma.EnigmaException.*;
+
+/** Micro- and end-to-end benchmarks for the enigma package.  Each
+ *  benchmark is warmed up and then timed over several rounds, reporting
+ *  the mean time and bytes allocated per operation.  Run with
+ *  'make bench', optionally setting BENCH to substrings that select the
+ *  benchmarks to run.
+ *  @author Pauline Tang
+ */
+final class Benchmarks {
+
+    /** Run the benchmarks whose names contain one of the strings in
+     *  FILTERS, or all of them if FILTERS is empty. */
+    public static void main(String... filters) {
+        Benchmarks bench = new Benchmarks(filters);
+        try {
+            bench.permutation();
+            bench.rotor();
+            bench.machine();
+            bench.endToEnd();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.out.printf("# checksum %d%n", _sink);
+    }
+
+    /** A suite running the benchmarks selected by FILTERS. */
+    private Benchmarks(String[] filters) {
+        _filters = filters;
+        System.out.printf("%-44s %12s %10s %12s%n", "benchmark", "ns/op",
+                          "+-", "bytes/op");
+    }
+
+    /** Benchmark Permutation.permute and invert. */
+    private void permutation() {
+        for (Alphabet alpha : alphabets()) {
+            Permutation perm = randomCycle(alpha, new Random(1));
+            int n = alpha.size();
+            run("permute/" + n, n, () -> {
+                long sum = 0;
+                for (int p = 0; p < n; p++) {
+                    sum += perm.permute(p);
+                }
+                return sum;
+            });
+            run("invert/" + n, n, () -> {
+                long sum = 0;
+                for (int p = 0; p < n; p++) {
+                    sum += perm.invert(p);
+                }
+                return sum;
+            });
+        }
+    }
+
+    /** Benchmark Rotor.convertForward and convertBackward at each
+     *  setting. */
+    private void rotor() {
+        for (Alphabet alpha : alphabets()) {
+            Rotor rotor = new MovingRotor("R", randomCycle(alpha,
+                                                           new Random(2)),
+                                          "");
+            int n = alpha.size();
+            for (int setting : new int[] {0, n / 2, n - 1}) {
+                rotor.set(setting);
+                run("convertForward/" + n + "@" + setting, n, () -> {
+                    long sum = 0;
+                    for (int p = 0; p < n; p++) {
+                        sum += rotor.convertForward(p);
+                    }
+                    return sum;
+                });
+                run("convertBackward/" + n + "@" + setting, n, () -> {
+                    long sum = 0;
+                    for (int p = 0; p < n; p++) {
+                        sum += rotor.convertBackward(p);
+                    }
+                    return sum;
+                });
+            }
+        }
+    }
+
+    /** Benchmark Machine.convert(int), convert(int[], int, int), and
+     *  convert(String) over several alphabets and numbers of rotors. */
+    private void machine() {
+        for (Alphabet alpha : alphabets()) {
+            for (int numRotors : new int[] {3, 5, 8}) {
+                Machine m = randomMachine(alpha, numRotors, new Random(3));
+                int n = alpha.size();
+                String label = "/" + n + "x" + numRotors;
+                run("Machine.convert(int)" + label, MESSAGE_LENGTH, () -> {
+                    long sum = 0;
+                    for (int i = 0; i < MESSAGE_LENGTH; i++) {
+                        sum += m.convert(i % n);
+                    }
+                    return sum;
+                });
+                Machine fused = randomMachine(alpha, numRotors,
+                                              new Random(3));
+                long tables = fused.fusedTablesNeeded();
+                if (tables > FUSED_CACHE_BYTES / (Integer.BYTES * n * n)) {
+                    skip("Machine.convert(int)+fused" + label,
+                         String.format("needs %s tables",
+                                       tables == Long.MAX_VALUE
+                                       ? "too many" : tables));
+                } else {
+                    fused.setFusedCacheCapacity((int) tables);
+                    run("Machine.convert(int)+fused" + label, MESSAGE_LENGTH,
+                        () -> {
+                            long sum = 0;
+                            for (int i = 0; i < MESSAGE_LENGTH; i++) {
+                                sum += fused.convert(i % n);
+                            }
+                            return sum;
+                        });
+                }
+                int[] block = new int[MESSAGE_LENGTH];
+                run("Machine.convert(int[])" + label, MESSAGE_LENGTH, () -> {
+                    for (int i = 0; i < MESSAGE_LENGTH; i++) {
+                        block[i] = i % n;
+                    }
+                    m.convert(block, 0, MESSAGE_LENGTH);
+                    return block[MESSAGE_LENGTH - 1];
+                });
+                String msg = randomText(alpha, MESSAGE_LENGTH,
+                                        new Random(4));
+                run("Machine.convert(String)" + label, MESSAGE_LENGTH,
+                    () -> m.convert(msg).hashCode());
+            }
+        }
+    }
+
+    /** Benchmark Main end to end, from input file to output file, on a
+     *  generated message file. */
+    private void endToEnd() {
+        if (!selected("Main")) {
+            return;
+        }
+        try {
+            File dir = File.createTempFile("enigma", "bench");
+            dir.delete();
+            dir.mkdir();
+            dir.deleteOnExit();
+            File config = new File(dir, "bench.conf");
+            File input = new File(dir, "bench.in");
+            File output = new File(dir, "bench.out");
+            for (File f : new File[] {config, input, output}) {
+                f.deleteOnExit();
+            }
+            long chars = writeMainInput(config, input);
+            String[] modes = {"Main", "Main --mmap"};
+            for (String mode : modes) {
+                String[] args = mode.endsWith("--mmap")
+                    ? new String[] {"--mmap", config.getPath(),
+                                    input.getPath(), output.getPath()}
+                    : new String[] {config.getPath(), input.getPath(),
+                                    output.getPath()};
+                run(mode + "/" + (chars >> 20) + "MB", chars, () -> {
+                    Main.main(args);
+                    return output.length();
+                });
+            }
+        } catch (IOException excp) {
+            throw error("could not write benchmark input: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Write NAVAL_CONFIG to CONFIG and a settings line followed by
+     *  about MAIN_INPUT_SIZE characters of message lines to INPUT,
+     *  returning the number of characters written to INPUT. */
+    private long writeMainInput(File config, File input) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(config))) {
+            for (String line : NAVAL_CONFIG) {
+                out.println(line);
+            }
+        }
+        Random random = new Random(5);
+        String settings = "* B Beta III IV I AXLE (HQ) (EX)";
+        long chars = settings.length() + 1;
+        try (PrintWriter out = new PrintWriter(new FileWriter(input))) {
+            out.println(settings);
+            while (chars < MAIN_INPUT_SIZE) {
+                String line = randomText(UPPER, MAIN_LINE_LENGTH,
+                                         random);
+                out.println(line);
+                chars += line.length() + 1;
+            }
+        }
+        return chars;
+    }
+
+    /** Run the benchmark NAME, if selected: BODY performs OPS operations
+     *  per call and returns a value that must not be optimized away. */
+    private void run(String name, long ops, LongSupplier body) {
+        if (!selected(name)) {
+            return;
+        }
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            round(ops, body);
+        }
+        double[] nanos = new double[ROUNDS];
+        double bytes = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            double[] result = round(ops, body);
+            nanos[r] = result[0];
+            bytes += result[1] / ROUNDS;
+        }
+        double mean = 0, var = 0;
+        for (double t : nanos) {
+            mean += t / ROUNDS;
+        }
+        for (double t : nanos) {
+            var += (t - mean) * (t - mean) / ROUNDS;
+        }
+        System.out.printf("%-44s %12.3f %10.3f %12.2f%n", name, mean,
+                          Math.sqrt(var), bytes);
+    }
+
+    /** Call BODY, which performs OPS operations, repeatedly for about
+     *  ROUND_NANOS and return the mean nanoseconds and bytes allocated per
+     *  operation. */
+    private double[] round(long ops, LongSupplier body) {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long calls = 0;
+        long elapsed;
+        do {
+            _sink += body.getAsLong();
+            calls += 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ROUND_NANOS);
+        allocated = allocatedBytes() - allocated;
+        return new double[] {(double) elapsed / (calls * ops),
+                             (double) allocated / (calls * ops)};
+    }
+
+    /** Return the number of bytes allocated so far by this thread, or 0
+     *  if the JVM does not report it. */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /** Report that benchmark NAME, if selected, cannot be run, for the
+     *  reason REASON. */
+    private void skip(String name, String reason) {
+        if (selected(name)) {
+            System.out.printf("%-44s %12s (%s)%n", name, "skipped", reason);
+        }
+    }
+
+    /** Return true iff benchmark NAME was selected. */
+    private boolean selected(String name) {
+        if (_filters.length == 0) {
+            return true;
+        }
+        for (String filter : _filters) {
+            if (name.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the alphabets benchmarks are run over: upper case, and
+     *  the printable ASCII characters other than blank. */
+    private static Alphabet[] alphabets() {
+        StringBuilder printable = new StringBuilder();
+        for (char c = '!'; c <= '~'; c++) {
+            printable.append(c);
+        }
+        return new Alphabet[] {UPPER,
+                               new Alphabet(printable.toString())};
+    }
+
+    /** Return a permutation of ALPHA consisting of a single cycle through
+     *  all its characters in an order chosen by RANDOM. */
+    private static Permutation randomCycle(Alphabet alpha, Random random) {
+        return new Permutation("(" + shuffle(alpha, random) + ")", alpha);
+    }
+
+    /** Return the characters of ALPHA in an order chosen by RANDOM. */
+    private static String shuffle(Alphabet alpha, Random random) {
+        char[] chars = new char[alpha.size()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = alpha.toChar(i);
+        }
+        for (int i = chars.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char t = chars[i];
+            chars[i] = chars[j];
+            chars[j] = t;
+        }
+        return new String(chars);
+    }
+
+    /** Return a machine over ALPHA with NUMROTORS slots, all but the
+     *  reflector holding moving rotors with random wiring and notches
+     *  chosen by RANDOM. */
+    private static Machine randomMachine(Alphabet alpha, int numRotors,
+                                         Random random) {
+        String order = shuffle(alpha, random);
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i + 1 < order.length(); i += 2) {
+            pairs.append('(').append(order, i, i + 2).append(')');
+        }
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        names[0] = "R";
+        rotors.add(new Reflector("R", new Permutation(pairs.toString(),
+                                                      alpha)));
+        for (int i = 1; i < numRotors; i++) {
+            names[i] = "M" + i;
+            String notch = String.valueOf(alpha.toChar(random.nextInt(
+                alpha.size())));
+            rotors.add(new MovingRotor(names[i], randomCycle(alpha, random),
+                                       notch));
+        }
+        Machine m = new Machine(alpha, numRotors, numRotors - 1, rotors);
+        m.insertRotors(names);
+        m.setPlugboard(new Permutation("", alpha));
+        return m;
+    }
+
+    /** Return LEN characters of ALPHA chosen by RANDOM. */
+    private static String randomText(Alphabet alpha, int len,
+                                     Random random) {
+        char[] text = new char[len];
+        for (int i = 0; i < len; i++) {
+            text[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(text);
+    }
+
+    /** The upper-case alphabet. */
+    private static final Alphabet UPPER = new Alphabet();
+
+    /** The lines of a configuration file for the naval rotors, the
+     *  moving ones all notched at Q, for the Main benchmarks. */
+    private static final String[] NAVAL_CONFIG = {
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        "5 3",
+        "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        "II MQ (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        "III MQ (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        "IV MQ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        "V MQ (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)",
+        "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)",
+        "    (TV)",
+    };
+
+    /** Number of warm-up and of measured rounds per benchmark. */
+    private static final int WARMUP_ROUNDS = 3, ROUNDS = 5;
+
+    /** Minimum length of one round, in nanoseconds. */
+    private static final long ROUND_NANOS = 200_000_000L;
+
+    /** Most memory the fused substitution cache may take in benchmarks
+     *  using it.  Each is sized to hold a table for every position of
+     *  the machine's slow rotors, and skipped if that would take more. */
+    private static final long FUSED_CACHE_BYTES = 1L << 28;
+
+    /** Length of the messages converted by Machine benchmarks. */
+    private static final int MESSAGE_LENGTH = 1 << 14;
+
+    /** Approximate size of the input file for Main benchmarks, and the
+     *  length of each message line in it. */
+    private static final int MAIN_INPUT_SIZE = 8 << 20,
+        MAIN_LINE_LENGTH = 60;
+
+    /** Benchmarks to run (see main). */
+    private final String[] _filters;
+
+    /** Accumulates benchmark results so they cannot be discarded. */
+    private static long _sink;
+}
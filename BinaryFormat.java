@@ -0,0 +1,322 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The binary forms of configurations and of whole machines.  Both start
+ *  with a four-byte magic number and a two-byte version, followed by a
+ *  rotor library:
+ *
+ *      alphabet  numRotors:int  pawls:int  count:int  rotor*
+ *
+ *  where each rotor is
+ *
+ *      type:byte ('M', 'N', or 'R')  name  notches  setting:int
+ *      wiring:char[alphabet size]
+ *
+ *  and the wiring gives the index each index maps to at setting 0.
+ *  Strings are an int length followed by that many chars.  A machine
+ *  adds its rotor slots, as a count (0 if no rotors are inserted)
+ *  followed by the index in the library of the rotor in each slot, and
+ *  a plugboard, as a byte that is 1 if there is one, followed by its
+ *  wiring.  Everything is big-endian, so either form is decoded in one
+ *  pass over a ByteBuffer, which may be a mapped file.
+ *  @author Pauline Tang
+ */
+final class BinaryFormat {
+
+    /** Not instantiable. */
+    private BinaryFormat() {
+    }
+
+    /** Return true iff BYTES, from its position, holds a configuration or
+     *  machine in binary form (of any version). */
+    static boolean isBinary(ByteBuffer bytes) {
+        if (bytes.remaining() < Integer.BYTES) {
+            return false;
+        }
+        int magic = bytes.getInt(bytes.position());
+        return magic == CONFIG_MAGIC || magic == MACHINE_MAGIC;
+    }
+
+    /** Return the binary form of CONFIG. */
+    static byte[] encode(Configuration config) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(CONFIG_MAGIC);
+            out.writeShort(VERSION);
+            writeLibrary(out, config.alphabet(), config.numRotors(),
+                         config.numPawls(), config.rotors(),
+                         config.rotors());
+        } catch (IOException excp) {
+            throw error("could not encode configuration");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the binary form of M, including the settings of all its
+     *  rotors, its rotor slots, and its plugboard. */
+    static byte[] encode(Machine m) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MACHINE_MAGIC);
+            out.writeShort(VERSION);
+            List<Rotor> library = m.availableRotors();
+            writeLibrary(out, m.alphabet(), m.numRotors(), m.numPawls(),
+                         library, m.hasRotors()
+                         ? Arrays.asList(m.myRotors())
+                         : Collections.<Rotor>emptyList());
+            if (m.hasRotors()) {
+                out.writeInt(m.numRotors());
+                for (Rotor r : m.myRotors()) {
+                    out.writeInt(library.indexOf(r));
+                }
+            } else {
+                out.writeInt(0);
+            }
+            out.writeByte(m.plugboard() == null ? 0 : 1);
+            if (m.plugboard() != null) {
+                writeWiring(out, m.plugboard());
+            }
+        } catch (IOException excp) {
+            throw error("could not encode machine");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the configuration whose binary form is at the position of
+     *  BYTES, advancing past it.  The rotors of a machine's binary form
+     *  are also accepted, ignoring their settings.  A truncated or
+     *  otherwise corrupt form, or one that describes an invalid
+     *  configuration, is reported as an EnigmaException. */
+    static Configuration decodeConfiguration(ByteBuffer bytes) {
+        readHeader(bytes);
+        try {
+            Library library = readLibrary(bytes);
+            return new Configuration(library.alphabet, library.numRotors,
+                                     library.pawls, library.rotors);
+        } catch (EnigmaException excp) {
+            throw excp;
+        } catch (RuntimeException excp) {
+            throw corrupt();
+        }
+    }
+
+    /** Return the machine whose binary form is at the position of BYTES,
+     *  advancing past it.  A configuration's binary form gives a machine
+     *  with no rotors inserted.  A truncated or otherwise corrupt form, or
+     *  one that describes an invalid machine, is reported as an
+     *  EnigmaException. */
+    static Machine decodeMachine(ByteBuffer bytes) {
+        boolean machine = readHeader(bytes);
+        try {
+            Library library = readLibrary(bytes);
+            Machine m = new Machine(library.alphabet, library.numRotors,
+                                    library.pawls, library.rotors);
+            if (!machine) {
+                return m;
+            }
+            int slots = readCount(bytes, Integer.BYTES);
+            if (slots > 0) {
+                String[] names = new String[slots];
+                for (int i = 0; i < slots; i++) {
+                    names[i] = library.rotors.get(bytes.getInt()).name();
+                }
+                m.insertRotors(names);
+            }
+            if (bytes.get() != 0) {
+                m.setPlugboard(new Permutation(readWiring(bytes,
+                                                          library.alphabet),
+                                               library.alphabet));
+            }
+            for (int k = 0; k < library.rotors.size(); k++) {
+                if (library.settings[k] != 0) {
+                    library.rotors.get(k).set(library.settings[k]);
+                }
+            }
+            return m;
+        } catch (EnigmaException excp) {
+            throw excp;
+        } catch (RuntimeException excp) {
+            throw corrupt();
+        }
+    }
+
+    /** Return the contents of the file named by PATH, mapped into
+     *  memory. */
+    static ByteBuffer map(Path path) {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", path);
+        }
+    }
+
+    /** Write BYTES to the file named by PATH, replacing its contents. */
+    static void write(Path path, byte[] bytes) {
+        try {
+            Files.write(path, bytes);
+        } catch (IOException excp) {
+            throw error("could not write %s", path);
+        }
+    }
+
+    /** A rotor library as read by readLibrary. */
+    private static final class Library {
+        /** Common alphabet. */
+        private Alphabet alphabet;
+        /** Number of slots and pawls. */
+        private int numRotors, pawls;
+        /** The rotors, at setting 0. */
+        private ArrayList<Rotor> rotors;
+        /** The recorded setting of each rotor. */
+        private int[] settings;
+    }
+
+    /** Read a magic number and version from BYTES, returning true iff
+     *  they introduce a machine rather than a configuration. */
+    private static boolean readHeader(ByteBuffer bytes) {
+        if (bytes.remaining() < Integer.BYTES + Short.BYTES) {
+            throw corrupt();
+        }
+        int magic = bytes.getInt();
+        if (magic != CONFIG_MAGIC && magic != MACHINE_MAGIC) {
+            throw error("not a binary configuration or machine");
+        }
+        short version = bytes.getShort();
+        if (version != VERSION) {
+            throw error("unsupported binary format version %d", version);
+        }
+        return magic == MACHINE_MAGIC;
+    }
+
+    /** Write the library with alphabet ALPHA, NUMROTORS slots, PAWLS
+     *  pawls, and ROTORS to OUT, recording the settings of the rotors in
+     *  SET and 0 as the setting of the others.  (Inserting a rotor resets
+     *  it, so only the settings of inserted rotors matter.) */
+    private static void writeLibrary(DataOutputStream out, Alphabet alpha,
+                                     int numRotors, int pawls,
+                                     Collection<Rotor> rotors,
+                                     Collection<Rotor> set)
+        throws IOException {
+        char[] chars = new char[alpha.size()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = alpha.toChar(i);
+        }
+        writeString(out, new String(chars));
+        out.writeInt(numRotors);
+        out.writeInt(pawls);
+        out.writeInt(rotors.size());
+        for (Rotor r : rotors) {
+            out.writeByte(r.reflecting() ? 'R' : r.rotates() ? 'M' : 'N');
+            writeString(out, r.name());
+            writeString(out, r.rotates() ? ((MovingRotor) r).notches() : "");
+            out.writeInt(set.contains(r) ? r.setting() : 0);
+            writeWiring(out, r.permutation());
+        }
+    }
+
+    /** Return the library read from BYTES. */
+    private static Library readLibrary(ByteBuffer bytes) {
+        Library library = new Library();
+        library.alphabet = new Alphabet(readString(bytes));
+        library.numRotors = bytes.getInt();
+        library.pawls = bytes.getInt();
+        int count = readCount(bytes, Byte.BYTES + 3 * Integer.BYTES
+                              + library.alphabet.size() * Character.BYTES);
+        library.rotors = new ArrayList<>(count);
+        library.settings = new int[count];
+        for (int k = 0; k < count; k++) {
+            byte type = bytes.get();
+            if (type != 'M' && type != 'N' && type != 'R') {
+                throw error("bad rotor type %d", type);
+            }
+            String name = readString(bytes);
+            String notches = readString(bytes);
+            library.settings[k] = bytes.getInt();
+            Permutation perm =
+                new Permutation(readWiring(bytes, library.alphabet),
+                                library.alphabet);
+            if (type == 'M') {
+                library.rotors.add(new MovingRotor(name, perm, notches));
+            } else if (type == 'R') {
+                library.rotors.add(new Reflector(name, perm));
+            } else {
+                library.rotors.add(new FixedRotor(name, perm));
+            }
+        }
+        return library;
+    }
+
+    /** Write the mapping of PERM to OUT. */
+    private static void writeWiring(DataOutputStream out, Permutation perm)
+        throws IOException {
+        for (int p = 0; p < perm.size(); p++) {
+            out.writeChar(perm.permute(p));
+        }
+    }
+
+    /** Return a mapping of the indices of ALPHA read from BYTES. */
+    private static int[] readWiring(ByteBuffer bytes, Alphabet alpha) {
+        int[] mapping = new int[alpha.size()];
+        for (int p = 0; p < mapping.length; p++) {
+            mapping[p] = bytes.getChar();
+        }
+        return mapping;
+    }
+
+    /** Write STR to OUT as its length followed by its characters. */
+    private static void writeString(DataOutputStream out, String str)
+        throws IOException {
+        out.writeInt(str.length());
+        out.writeChars(str);
+    }
+
+    /** Return a string written by writeString, read from BYTES. */
+    private static String readString(ByteBuffer bytes) {
+        char[] chars = new char[readCount(bytes, Character.BYTES)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = bytes.getChar();
+        }
+        return new String(chars);
+    }
+
+    /** Return a count of items read from BYTES, where each item takes at
+     *  least SIZE of the bytes that follow, first checking that they
+     *  hold that many.  Checking before allocating for the items keeps a
+     *  corrupt count from asking for more memory than the form could
+     *  possibly describe. */
+    private static int readCount(ByteBuffer bytes, int size) {
+        int count = bytes.getInt();
+        if (count < 0 || count > bytes.remaining() / size) {
+            throw corrupt();
+        }
+        return count;
+    }
+
+    /** Return the exception reporting a corrupt binary form. */
+    private static EnigmaException corrupt() {
+        return error("binary configuration corrupt");
+    }
+
+    /** First four bytes of a configuration ("ENGC") or of a machine
+     *  ("ENGM"). */
+    static final int CONFIG_MAGIC = 0x454e4743, MACHINE_MAGIC = 0x454e474d;
+
+    /** Version of the format written here.  Version 1 configurations
+     *  recorded no rotor settings. */
+    static final short VERSION = 2;
+}
@@ -0,0 +1,157 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BinaryFormat class.
+ *  @author Pauline Tang
+ */
+public class BinaryFormatTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the current settings of the rotors of M, indexed by slot. */
+    private int[] settings(Machine m) {
+        int[] result = new int[m.numRotors()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = m.myRotors()[i].setting();
+        }
+        return result;
+    }
+
+    /** Return the message of the error reported on decoding BYTES as a
+     *  machine, checking that decoding them as a configuration reports
+     *  the same error. */
+    private String decodeError(byte[] bytes) {
+        String result = null;
+        try {
+            BinaryFormat.decodeMachine(ByteBuffer.wrap(bytes));
+            fail("decoded a corrupt machine");
+        } catch (EnigmaException excp) {
+            result = excp.getMessage();
+        }
+        try {
+            BinaryFormat.decodeConfiguration(ByteBuffer.wrap(bytes));
+            fail("decoded a corrupt configuration");
+        } catch (EnigmaException excp) {
+            assertEquals(result, excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Return the offset of the type byte of the first rotor in the
+     *  binary form of a configuration or machine with alphabet ALPHA. */
+    private int firstRotor(Alphabet alpha) {
+        return Integer.BYTES + Short.BYTES
+            + Integer.BYTES + alpha.size() * Character.BYTES
+            + 3 * Integer.BYTES;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRoundTrip() {
+        String msg = randomMessage(500);
+        Machine m = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        m.convert(msg);
+        Machine copy = BinaryFormat.decodeMachine(
+            ByteBuffer.wrap(BinaryFormat.encode(m)));
+        assertArrayEquals(settings(m), settings(copy));
+        assertEquals(m.convert(msg), copy.convert(msg));
+    }
+
+    @Test
+    public void testConfigurationRoundTrip() {
+        Configuration config = navalConfiguration();
+        byte[] bytes = BinaryFormat.encode(config);
+        assertTrue(BinaryFormat.isBinary(ByteBuffer.wrap(bytes)));
+        Configuration copy =
+            BinaryFormat.decodeConfiguration(ByteBuffer.wrap(bytes));
+        assertArrayEquals(bytes, BinaryFormat.encode(copy));
+        Machine m = BinaryFormat.decodeMachine(ByteBuffer.wrap(bytes));
+        assertFalse(m.hasRotors());
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] machine = BinaryFormat.encode(navalMachine("AXLE", "(HQ)"));
+        for (int n = 0; n < machine.length; n++) {
+            try {
+                BinaryFormat.decodeMachine(
+                    ByteBuffer.wrap(Arrays.copyOf(machine, n)));
+                fail(msg("truncated machine", "%d bytes", n));
+            } catch (EnigmaException excp) {
+                assertEquals("binary configuration corrupt",
+                             excp.getMessage());
+            }
+        }
+        byte[] config = BinaryFormat.encode(navalConfiguration());
+        for (int n = 0; n < config.length; n++) {
+            assertEquals(msg("truncated configuration", "%d bytes", n),
+                         "binary configuration corrupt",
+                         decodeError(Arrays.copyOf(config, n)));
+        }
+    }
+
+    @Test
+    public void testBadCount() {
+        for (int magic : new int[] {BinaryFormat.CONFIG_MAGIC,
+                                    BinaryFormat.MACHINE_MAGIC}) {
+            for (int len : new int[] {-1, Integer.MAX_VALUE}) {
+                ByteBuffer bytes = ByteBuffer.allocate(10);
+                bytes.putInt(magic).putShort(BinaryFormat.VERSION).putInt(len);
+                assertEquals("binary configuration corrupt",
+                             decodeError(bytes.array()));
+            }
+        }
+    }
+
+    @Test
+    public void testBadMagic() {
+        byte[] bytes = BinaryFormat.encode(navalConfiguration());
+        bytes[3] = 'X';
+        assertFalse(BinaryFormat.isBinary(ByteBuffer.wrap(bytes)));
+        assertEquals("not a binary configuration or machine",
+                     decodeError(bytes));
+        assertFalse(BinaryFormat.isBinary(ByteBuffer.wrap(new byte[3])));
+    }
+
+    @Test
+    public void testBadVersion() {
+        byte[] bytes = BinaryFormat.encode(navalConfiguration());
+        ByteBuffer.wrap(bytes).putShort(Integer.BYTES,
+                                        (short) (BinaryFormat.VERSION + 1));
+        assertEquals(String.format("unsupported binary format version %d",
+                                   BinaryFormat.VERSION + 1),
+                     decodeError(bytes));
+    }
+
+    @Test
+    public void testBadRotorType() {
+        Machine m = navalMachine("AXLE", "(HQ)");
+        for (byte[] bytes : new byte[][] {
+                BinaryFormat.encode(navalConfiguration()),
+                BinaryFormat.encode(m) }) {
+            int at = firstRotor(m.alphabet());
+            assertTrue(bytes[at] == 'M' || bytes[at] == 'N'
+                       || bytes[at] == 'R');
+            for (byte type : new byte[] {'X', 'm', 0, -1}) {
+                bytes[at] = type;
+                assertEquals(String.format("bad rotor type %d", type),
+                             decodeError(bytes));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,416 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext attack on Enigma messages enciphered with an
+ *  unknown plugboard, after the Turing-Welchman Bombe.
+ *
+ *  Without its plugboard P, a machine's rotors and reflector perform
+ *  some involution S_i on the I-th character of a message, so a crib
+ *  character p enciphered as c gives P(c) = S_i(P(p)) and P(p) =
+ *  S_i(P(c)).  These pairs of letters, labelled with their positions,
+ *  form the "menu", a graph on the letters.  To test a rotor setting,
+ *  the Bombe supposes that the most connected letter L of the menu is
+ *  plugged to some X, and follows the menu's edges from there, along
+ *  with the fact that P is its own inverse, to work out what every
+ *  other letter connected to L must be plugged to.  Most suppositions
+ *  soon require some letter to be plugged to two others, and once all
+ *  of them have, the setting is rejected.  A supposition that leads to
+ *  a contradiction also rules out every other one it implied, so those
+ *  are not tried.  Only a few characters are ever pushed through the
+ *  rotors for most settings, and the plugboard is never tried at all.
+ *
+ *  The rotors are taken to be arranged as Configuration.arrangements()
+ *  describes.  Each arrangement is compiled once (see CompiledMachine),
+ *  and the settings of its leftmost rotor are searched concurrently.
+ *  @author Pauline Tang
+ */
+final class Bombe {
+
+    /** A Bombe for messages enciphered by machines with configuration
+     *  CONFIG. */
+    Bombe(Configuration config) {
+        _config = config;
+        _alphabet = config.alphabet();
+        _numRotors = config.numRotors();
+    }
+
+    /** Return every stop, in the order of my configuration's
+     *  arrangements() and then of the settings at the start of the crib:
+     *  each setup, with the part of its plugboard the menu determines,
+     *  under which a machine may turn CRIB into the characters of
+     *  CIPHERTEXT starting with the one at index OFFSET.  Searches in
+     *  POOL.  Whitespace in CRIB and CIPHERTEXT is ignored, and not
+     *  counted in OFFSET. */
+    List<Stop> search(String ciphertext, String crib, int offset,
+                      ForkJoinPool pool) {
+        int[] cipher = Attacks.indices(_alphabet, ciphertext);
+        int[] plain = Attacks.indices(_alphabet, crib);
+        if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in ciphertext");
+        }
+        if (plain.length == 0) {
+            throw error("empty crib");
+        }
+        int[] expected = Arrays.copyOfRange(cipher, offset,
+                                            offset + plain.length);
+        Menu menu = new Menu(plain, expected, _alphabet.size());
+
+        List<ForkJoinTask<List<Stop>>> tasks = new ArrayList<>();
+        for (Rotor[] rotors : _config.arrangements()) {
+            CompiledMachine machine =
+                new CompiledMachine(_alphabet, rotors, new int[_numRotors],
+                                    null);
+            for (int first = 0; first < _alphabet.size(); first++) {
+                int leftmost = first;
+                tasks.add(pool.submit(
+                    () -> new Run(menu, rotors, machine, offset)
+                    .search(leftmost)));
+            }
+        }
+        List<Stop> result = new ArrayList<>();
+        for (ForkJoinTask<List<Stop>> task : tasks) {
+            result.addAll(task.join());
+        }
+        return result;
+    }
+
+    /** The menu of a crib: for each letter, the letters it is paired with
+     *  and the positions of those pairings, and its connected parts. */
+    private static final class Menu {
+
+        /** The menu for crib PLAIN enciphered as EXPECTED, over an
+         *  alphabet of SIZE letters. */
+        Menu(int[] plain, int[] expected, int size) {
+            length = plain.length;
+            int[] degree = new int[size];
+            for (int i = 0; i < length; i++) {
+                degree[plain[i]] += 1;
+                degree[expected[i]] += 1;
+            }
+            others = new int[size][];
+            positions = new int[size][];
+            for (int c = 0; c < size; c++) {
+                others[c] = new int[degree[c]];
+                positions[c] = new int[degree[c]];
+            }
+            int[] n = new int[size];
+            for (int i = 0; i < length; i++) {
+                int p = plain[i], e = expected[i];
+                others[p][n[p]] = e;
+                positions[p][n[p]] = i;
+                n[p] += 1;
+                others[e][n[e]] = p;
+                positions[e][n[e]] = i;
+                n[e] += 1;
+            }
+
+            List<int[]> parts = new ArrayList<>();
+            boolean[] seen = new boolean[size];
+            for (int c = 0; c < size; c++) {
+                if (degree[c] > 0 && !seen[c]) {
+                    parts.add(part(c, seen, degree));
+                }
+            }
+            parts.sort((x, y) -> y[1] - x[1]);
+            centrals = new int[parts.size()];
+            for (int k = 0; k < centrals.length; k++) {
+                centrals[k] = parts.get(k)[0];
+            }
+        }
+
+        /** Mark the letters connected to C in SEEN, and return the most
+         *  connected of them, by DEGREE, and their number. */
+        private int[] part(int c, boolean[] seen, int[] degree) {
+            int[] stack = new int[seen.length];
+            int top = 0, count = 0, central = c;
+            stack[top++] = c;
+            seen[c] = true;
+            while (top > 0) {
+                int u = stack[--top];
+                count += 1;
+                if (degree[u] > degree[central]) {
+                    central = u;
+                }
+                for (int v : others[u]) {
+                    if (!seen[v]) {
+                        seen[v] = true;
+                        stack[top++] = v;
+                    }
+                }
+            }
+            return new int[] {central, count};
+        }
+
+        /** Number of characters in the crib. */
+        private final int length;
+
+        /** For each letter, the letters paired with it. */
+        private final int[][] others;
+
+        /** For each letter, the crib positions of its pairings, matching
+         *  others. */
+        private final int[][] positions;
+
+        /** The most connected letter of each connected part of the menu,
+         *  largest part first. */
+        private final int[] centrals;
+    }
+
+    /** The search of one arrangement of rotors for one setting of its
+     *  leftmost rotor, with its scratch state. */
+    private final class Run {
+
+        /** A search with the crib menu MENU and the rotors ROTORS,
+         *  compiled as MACHINE, for cribs starting at OFFSET. */
+        Run(Menu menu, Rotor[] rotors, CompiledMachine machine,
+            int offset) {
+            int size = _alphabet.size();
+            _menu = menu;
+            _rotors = rotors;
+            _machine = machine;
+            _offset = offset;
+            _at = new CompiledMachine.Cursor[menu.length];
+            for (int i = 0; i < _at.length; i++) {
+                _at[i] = machine.newCursor();
+            }
+            _scrambled = new int[menu.length * size];
+            _scrambledFor = new int[menu.length * size];
+            _partner = new int[size];
+            _assignedIn = new int[size];
+            _fixed = new int[size];
+            Arrays.fill(_fixed, -1);
+            _queue = new int[size];
+            _ruledOut = new boolean[size];
+        }
+
+        /** Return the stops whose settings at the start of the crib have
+         *  the setting FIRST in slot 1. */
+        List<Stop> search(int first) {
+            List<Stop> result = new ArrayList<>();
+            int[] posns = new int[_numRotors];
+            posns[1] = first;
+            do {
+                test(posns, result);
+            } while (_machine.nextSetting(posns, 2, _numRotors));
+            return result;
+        }
+
+        /** Add to RESULT the stops with settings POSNS at the start of
+         *  the crib. */
+        private void test(int[] posns, List<Stop> result) {
+            _setting += 1;
+            _at[0].moveTo(posns);
+            _at[0].skip(1);
+            for (int i = 1; i < _at.length; i++) {
+                _at[i].moveTo(_at[i - 1]);
+                _at[i].skip(1);
+            }
+            int central = _menu.centrals[0];
+            Arrays.fill(_ruledOut, false);
+            for (int x = 0; x < _ruledOut.length; x++) {
+                if (_ruledOut[x]) {
+                    continue;
+                }
+                if (!suppose(central, x)) {
+                    _ruledOut[x] = true;
+                    continue;
+                }
+                int[] plugged = fix();
+                if (extendable(1)) {
+                    int[] mapping = new int[_ruledOut.length];
+                    for (int c = 0; c < mapping.length; c++) {
+                        mapping[c] = _fixed[c] == -1 ? c : _fixed[c];
+                    }
+                    Permutation plugboard =
+                        new Permutation(mapping, _alphabet);
+                    for (int[] start
+                             : _machine.settingsBefore(posns, _offset)) {
+                        result.add(new Stop(_rotors, start, plugboard));
+                    }
+                }
+                unfix(plugged);
+            }
+        }
+
+        /** Return true iff the plugboard pairings in _fixed can be
+         *  extended to the connected parts of the menu from the K-th on.
+         *  Leaves _fixed as it was. */
+        private boolean extendable(int k) {
+            if (k == _menu.centrals.length) {
+                return true;
+            }
+            int central = _menu.centrals[k];
+            for (int x = 0; x < _ruledOut.length; x++) {
+                if (suppose(central, x)) {
+                    int[] plugged = fix();
+                    boolean found = extendable(k + 1);
+                    unfix(plugged);
+                    if (found) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /** Suppose that letter CENTRAL is plugged to X, and work out the
+         *  pluggings of the letters connected to it in the menu into
+         *  _partner, consistently with _fixed.  Return false if that
+         *  leads to a contradiction.  If CENTRAL is the central letter of
+         *  the menu, also mark in _ruledOut any other letter found to be
+         *  plugged to it.  (A contradiction about another part of the
+         *  menu says nothing about that letter, and may depend on the
+         *  pluggings in _fixed, so it rules nothing out.) */
+        private boolean suppose(int central, int x) {
+            _supposition += 1;
+            _central = central == _menu.centrals[0] ? central : -1;
+            _head = _tail = 0;
+            if (!assign(central, x)) {
+                return false;
+            }
+            while (_head < _tail) {
+                int u = _queue[_head++];
+                int v = _partner[u];
+                if (!assign(v, u)) {
+                    return false;
+                }
+                int[] others = _menu.others[u];
+                int[] positions = _menu.positions[u];
+                for (int j = 0; j < others.length; j++) {
+                    if (!assign(others[j], scramble(positions[j], v))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that letter U is plugged to V under the current
+         *  supposition, returning false if U is already plugged to some
+         *  other letter. */
+        private boolean assign(int u, int v) {
+            int known = _fixed[u] != -1 ? _fixed[u]
+                : _assignedIn[u] == _supposition ? _partner[u] : -1;
+            if (known != -1) {
+                if (known != v && u == _central && _fixed[u] == -1) {
+                    _ruledOut[v] = true;
+                }
+                return known == v;
+            }
+            _assignedIn[u] = _supposition;
+            _partner[u] = v;
+            _queue[_tail++] = u;
+            return true;
+        }
+
+        /** Copy the pluggings of the current supposition into _fixed,
+         *  returning the letters copied. */
+        private int[] fix() {
+            int[] plugged = Arrays.copyOf(_queue, _tail);
+            for (int u : plugged) {
+                _fixed[u] = _partner[u];
+            }
+            return plugged;
+        }
+
+        /** Remove the pluggings of the letters PLUGGED from _fixed. */
+        private void unfix(int[] plugged) {
+            for (int u : plugged) {
+                _fixed[u] = -1;
+            }
+        }
+
+        /** Return the letter that the rotors and reflector turn C into at
+         *  position I of the crib, at the current setting. */
+        private int scramble(int i, int c) {
+            int size = _ruledOut.length;
+            int k = i * size + c;
+            if (_scrambledFor[k] != _setting) {
+                int d = _at[i].convertWithoutAdvancing(c);
+                _scrambled[k] = d;
+                _scrambledFor[k] = _setting;
+                _scrambled[i * size + d] = c;
+                _scrambledFor[i * size + d] = _setting;
+            }
+            return _scrambled[k];
+        }
+
+        /** The menu searched. */
+        private final Menu _menu;
+
+        /** The rotors searched, indexed by slot. */
+        private final Rotor[] _rotors;
+
+        /** _rotors, compiled without a plugboard. */
+        private final CompiledMachine _machine;
+
+        /** Position of the crib in the ciphertext. */
+        private final int _offset;
+
+        /** Cursors at the settings for each character of the crib. */
+        private final CompiledMachine.Cursor[] _at;
+
+        /** Conversions at each crib position (times alphabet size) of
+         *  each letter, valid where _scrambledFor is _setting. */
+        private final int[] _scrambled, _scrambledFor;
+
+        /** Number of settings tested so far. */
+        private int _setting;
+
+        /** Letter each letter is plugged to under the current
+         *  supposition, where _assignedIn is _supposition. */
+        private final int[] _partner, _assignedIn;
+
+        /** Number of suppositions made so far. */
+        private int _supposition;
+
+        /** Letter the current supposition is about, if it is the central
+         *  letter of the menu, and otherwise -1. */
+        private int _central;
+
+        /** Pluggings fixed by the suppositions being extended, or -1. */
+        private final int[] _fixed;
+
+        /** Letters plugged under the current supposition are
+         *  _queue[0 .. _tail-1]; those from _head on are yet to be
+         *  followed through the menu. */
+        private final int[] _queue;
+
+        /** See _queue. */
+        private int _head, _tail;
+
+        /** Letters known not to be plugged to the central letter of the
+         *  menu at the current setting. */
+        private final boolean[] _ruledOut;
+    }
+
+    /** A setup found by a Bombe: the rotors in each slot, their initial
+     *  settings, and a plugboard that pairs the letters of the largest
+     *  connected part of the menu as the crib requires.  Other letters
+     *  are left unplugged, though the crib may require other pairings of
+     *  them; such pairings exist, but the menu does not determine them. */
+    static final class Stop extends Attacks.Setup {
+
+        /** A stop with ROTORS in my slots at settings POSNS, each indexed
+         *  by slot, and plugboard PLUGBOARD. */
+        private Stop(Rotor[] rotors, int[] posns, Permutation plugboard) {
+            super(rotors, posns, plugboard.alphabet(), plugboard);
+        }
+    }
+
+    /** Configuration of the machines attacked. */
+    private final Configuration _config;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots of the machines attacked. */
+    private final int _numRotors;
+}
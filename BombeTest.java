@@ -0,0 +1,148 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Pauline Tang
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a configuration like smallConfiguration(), but with only
+     *  the rotors named NAMES available. */
+    private Configuration smallConfigurationOf(String... names) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : smallConfiguration().rotors()) {
+            if (Arrays.asList(names).contains(r.name())) {
+                rotors.add(r);
+            }
+        }
+        return new Configuration(UPPER, 4, 2, rotors);
+    }
+
+    /** Return the number of connected parts of the menu of CRIB, placed
+     *  at the start of CIPHER: the graph pairing each letter of CRIB
+     *  with the letter of CIPHER at the same position. */
+    private int menuParts(String crib, String cipher) {
+        int[] parent = new int[UPPER.size()];
+        boolean[] used = new boolean[parent.length];
+        for (int c = 0; c < parent.length; c++) {
+            parent[c] = c;
+        }
+        for (int i = 0; i < crib.length(); i++) {
+            int p = root(parent, UPPER.toInt(crib.charAt(i)));
+            int e = root(parent, UPPER.toInt(cipher.charAt(i)));
+            used[p] = used[e] = true;
+            parent[p] = e;
+        }
+        int result = 0;
+        for (int c = 0; c < parent.length; c++) {
+            if (used[c] && root(parent, c) == c) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the root of the tree containing C in PARENT. */
+    private int root(int[] parent, int c) {
+        while (parent[c] != c) {
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSearch() {
+        Configuration config = smallConfiguration();
+        List<String> pairs = Arrays.asList("(AQ)", "(EH)", "(OT)", "(RZ)");
+        String plugboard = String.join(" ", pairs);
+        Machine m = config.newMachine();
+        m.reconfigure(new String[] {"C", "Beta", "III", "II"}, "KDE",
+                      plugboard);
+        String plain = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDRUNSAWAY";
+        String cipher = m.convert(plain);
+        int offset = 4;
+        String crib = plain.substring(offset, offset + 30);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<Bombe.Stop> stops =
+                new Bombe(config).search(cipher, crib, offset, pool);
+            Bombe.Stop found = null;
+            for (Bombe.Stop stop : stops) {
+                if (stop.toString().startsWith("* C Beta III II KDE")) {
+                    found = stop;
+                }
+            }
+            assertNotNull(found);
+            assertTrue(stops.size() < 10);
+            assertFalse(found.plugboard().isEmpty());
+            for (String cycle : found.plugboard().split(" ")) {
+                assertTrue(cycle, pairs.contains(cycle));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSeveralMenuParts() {
+        Configuration config =
+            smallConfigurationOf("B", "Beta", "II", "III");
+        Machine m = config.newMachine();
+        m.reconfigure(new String[] {"B", "Beta", "II", "III"}, "DGG",
+                      "(XW) (BO) (ZE) (PD) (MF) (YR) (SU) (TK) (NV) (CL)");
+        String plain = "ZSBMDXFEFTWQOMPVVJZNLAFVLRTYXXPEYCGUGEOM";
+        String cipher = m.convert(plain);
+        String crib = plain.substring(0, 10);
+        assertTrue(menuParts(crib, cipher) > 1);
+        List<Bombe.Stop> stops = new Bombe(config)
+            .search(cipher, crib, 0, ForkJoinPool.commonPool());
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            found |= stop.toString().startsWith("* B Beta II III DGG ");
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testNoPlugboard() {
+        Configuration config = smallConfiguration();
+        Machine m = config.newMachine();
+        m.reconfigure(new String[] {"B", "Beta", "I", "III"}, "AZQ", "");
+        String plain = "WEATHERREPORTFORTHENORTHSEA";
+        String cipher = m.convert(plain);
+        List<Bombe.Stop> stops = new Bombe(config)
+            .search(cipher, plain, 0, ForkJoinPool.commonPool());
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            if (stop.toString().equals("* B Beta I III AZQ")) {
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCribTooLong() {
+        new Bombe(smallConfiguration())
+            .search("ABCDE", "XYZ", 3, ForkJoinPool.commonPool());
+    }
+}
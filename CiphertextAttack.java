@@ -0,0 +1,244 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack on Enigma messages.  Given only a
+ *  ciphertext, it looks for the setups of a machine with a given
+ *  configuration under which the ciphertext decrypts to something that
+ *  looks most like some language.
+ *
+ *  The search has two phases.  First, every arrangement of rotors (see
+ *  Configuration.arrangements()) at every initial setting decrypts the
+ *  ciphertext without a plugboard, and the setups whose decryptions
+ *  have the highest index of coincidence are kept: since a plugboard
+ *  only swaps letters, the right rotors tend to give a text whose letter
+ *  frequencies are uneven, as the language's are.  Each decryption
+ *  reuses one CompiledMachine.Cursor and buffer per arrangement, and
+ *  only the setups that make the list allocate anything.  Then, for
+ *  each setup kept, a plugboard is found by hill-climbing: pairs of
+ *  letters are plugged or unplugged one at a time for as long as that
+ *  improves the n-gram score (see NGrams) of the decryption.  The
+ *  rotors and reflector are tabulated once for each position of the
+ *  ciphertext, so each plugboard tried costs a few lookups per
+ *  character.  Both phases are run concurrently.
+ *  @author Pauline Tang
+ */
+final class CiphertextAttack {
+
+    /** An attack on messages enciphered by machines with configuration
+     *  CONFIG, scoring decryptions with NGRAMS. */
+    CiphertextAttack(Configuration config, NGrams ngrams) {
+        _config = config;
+        _alphabet = config.alphabet();
+        _numRotors = config.numRotors();
+        _ngrams = ngrams;
+        if (ngrams.alphabet().size() != _alphabet.size()) {
+            throw error("n-grams and machines have different alphabets");
+        }
+    }
+
+    /** Return the best KEEP setups for CIPHERTEXT, best first, searching
+     *  in POOL.  Whitespace in CIPHERTEXT is ignored. */
+    List<Candidate> search(String ciphertext, int keep, ForkJoinPool pool) {
+        int[] cipher = Attacks.indices(_alphabet, ciphertext);
+        if (cipher.length < _ngrams.length()) {
+            throw error("ciphertext too short");
+        }
+        if (keep < 1) {
+            throw error("must keep at least one setup");
+        }
+        List<Rotor[]> arrangements = _config.arrangements();
+        List<ForkJoinTask<List<Setup>>> sweeps = new ArrayList<>();
+        for (int k = 0; k < arrangements.size(); k++) {
+            int arrangement = k;
+            sweeps.add(pool.submit(
+                () -> sweep(arrangement, arrangements.get(arrangement),
+                            cipher, keep)));
+        }
+        List<Setup> setups = new ArrayList<>();
+        for (ForkJoinTask<List<Setup>> sweep : sweeps) {
+            setups.addAll(sweep.join());
+        }
+        setups.sort(Setup.ORDER);
+        setups = setups.subList(0, Math.min(keep, setups.size()));
+
+        List<ForkJoinTask<Candidate>> climbs = new ArrayList<>();
+        for (Setup setup : setups) {
+            climbs.add(pool.submit(
+                () -> climb(arrangements.get(setup.arrangement), setup.posns,
+                            cipher)));
+        }
+        List<Candidate> result = new ArrayList<>();
+        for (ForkJoinTask<Candidate> climb : climbs) {
+            result.add(climb.join());
+        }
+        result.sort(Comparator.comparingDouble(Candidate::score)
+                    .reversed());
+        return result;
+    }
+
+    /** Return the KEEP setups with the rotors ROTORS, the ARRANGEMENT-th
+     *  of my configuration's, whose decryptions of the character indices
+     *  CIPHER without a plugboard have the highest index of
+     *  coincidence. */
+    private List<Setup> sweep(int arrangement, Rotor[] rotors, int[] cipher,
+                              int keep) {
+        CompiledMachine machine =
+            new CompiledMachine(_alphabet, rotors, new int[_numRotors],
+                                null);
+        CompiledMachine.Cursor cursor = machine.newCursor();
+        PriorityQueue<Setup> kept = new PriorityQueue<>(Setup.ORDER
+                                                        .reversed());
+        int[] text = new int[cipher.length];
+        int[] counts = new int[_alphabet.size()];
+        int[] posns = new int[_numRotors];
+        do {
+            System.arraycopy(cipher, 0, text, 0, cipher.length);
+            cursor.moveTo(posns);
+            cursor.convert(text, 0, text.length);
+            Arrays.fill(counts, 0);
+            for (int c : text) {
+                counts[c] += 1;
+            }
+            long coincidences = 0;
+            for (int count : counts) {
+                coincidences += (long) count * (count - 1);
+            }
+            if (kept.size() < keep
+                || coincidences > kept.peek().coincidences) {
+                kept.add(new Setup(arrangement, posns.clone(),
+                                   coincidences));
+                if (kept.size() > keep) {
+                    kept.poll();
+                }
+            }
+        } while (machine.nextSetting(posns, 1, _numRotors));
+        return new ArrayList<>(kept);
+    }
+
+    /** Return the candidate with the rotors ROTORS at initial settings
+     *  POSNS, and the plugboard found by hill-climbing on the n-gram
+     *  score of the decryption of the character indices CIPHER. */
+    private Candidate climb(Rotor[] rotors, int[] posns, int[] cipher) {
+        int size = _alphabet.size();
+        int len = cipher.length;
+        CompiledMachine.Cursor cursor =
+            new CompiledMachine(_alphabet, rotors, posns, null).newCursor();
+        int[] sub = new int[len * size];
+        for (int i = 0; i < len; i++) {
+            cursor.skip(1);
+            for (int c = 0; c < size; c++) {
+                sub[i * size + c] = cursor.convertWithoutAdvancing(c);
+            }
+        }
+        int[] map = new int[size];
+        for (int c = 0; c < size; c++) {
+            map[c] = c;
+        }
+        double best = _ngrams.score(cipher, len, sub, map);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < size; a++) {
+                for (int b = a + 1; b < size; b++) {
+                    int pa = map[a], pb = map[b];
+                    if (pa == b) {
+                        map[a] = a;
+                        map[b] = b;
+                    } else {
+                        map[pa] = pa;
+                        map[pb] = pb;
+                        map[a] = b;
+                        map[b] = a;
+                    }
+                    double score = _ngrams.score(cipher, len, sub, map);
+                    if (score > best + EPSILON) {
+                        best = score;
+                        improved = true;
+                    } else {
+                        map[pa] = a;
+                        map[pb] = b;
+                        map[a] = pa;
+                        map[b] = pb;
+                    }
+                }
+            }
+        }
+        return new Candidate(rotors, posns,
+                             new Permutation(map, _alphabet), best);
+    }
+
+    /** A setup kept by the first phase of a search. */
+    private static final class Setup {
+
+        /** Orders setups by decreasing COINCIDENCES, then by arrangement
+         *  and settings. */
+        static final Comparator<Setup> ORDER =
+            Comparator.comparingLong((Setup s) -> -s.coincidences)
+            .thenComparingInt(s -> s.arrangement)
+            .thenComparing(s -> s.posns, Arrays::compare);
+
+        /** The setup with the ARRANGEMENT-th arrangement of rotors, at
+         *  initial settings POSNS, whose decryption has COINCIDENCES
+         *  ordered pairs of equal letters. */
+        Setup(int arrangement, int[] posns, long coincidences) {
+            this.arrangement = arrangement;
+            this.posns = posns;
+            this.coincidences = coincidences;
+        }
+
+        /** Index of my rotors among the configuration's arrangements. */
+        private final int arrangement;
+
+        /** Initial settings of my rotors, indexed by slot. */
+        private final int[] posns;
+
+        /** Number of ordered pairs of equal letters in my decryption,
+         *  proportional to its index of coincidence. */
+        private final long coincidences;
+    }
+
+    /** A setup found by a CiphertextAttack: the rotors in each slot, their
+     *  initial settings, a plugboard, and the score of the decryption. */
+    static final class Candidate extends Attacks.Setup {
+
+        /** A candidate with ROTORS in my slots at settings POSNS, each
+         *  indexed by slot, plugboard PLUGBOARD, and score SCORE. */
+        private Candidate(Rotor[] rotors, int[] posns,
+                          Permutation plugboard, double score) {
+            super(rotors, posns, plugboard.alphabet(), plugboard);
+            _score = score;
+        }
+
+        /** Return the n-gram score of my decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** N-gram score of my decryption. */
+        private final double _score;
+    }
+
+    /** Smallest improvement in score that counts when hill-climbing. */
+    private static final double EPSILON = 1e-9;
+
+    /** Configuration of the machines attacked. */
+    private final Configuration _config;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots of the machines attacked. */
+    private final int _numRotors;
+
+    /** Frequencies of n-grams in the plaintext language. */
+    private final NGrams _ngrams;
+}
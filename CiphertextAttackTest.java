@@ -0,0 +1,128 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CiphertextAttack and NGrams
+ *  classes.
+ *  @author Pauline Tang
+ */
+public class CiphertextAttackTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Some English text, without spaces. */
+    private static final String ENGLISH =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOMITWAS"
+        + "THEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCHOF"
+        + "INCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESSITWAS"
+        + "THESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHINGBEFOREUS"
+        + "WEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVENWEWEREALL"
+        + "GOINGDIRECTTHEOTHERWAYINSHORTTHEPERIODWASSOFARLIKETHEPRESENT"
+        + "PERIODTHATSOMEOFITSNOISIESTAUTHORITIESINSISTEDONITSBEING"
+        + "RECEIVEDFORGOODORFOREVILINTHESUPERLATIVEDEGREEOFCOMPARISON"
+        + "ONLYTHEREWEREAKINGWITHALARGEJAWANDAQUEENWITHAPLAINFACEON"
+        + "THETHRONEOFENGLANDTHEREWEREAKINGWITHALARGEJAWANDAQUEENWITHA"
+        + "FAIRFACEONTHETHRONEOFFRANCE";
+
+    /** Return the character indices of TEXT in UPPER. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = UPPER.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCount() {
+        NGrams bigrams = NGrams.count(UPPER, 2, "AB AB, BA!");
+        assertEquals(2, bigrams.length());
+        int[] text = indices("ABAB");
+        assertEquals(3 * Math.log10(2.0 / 5), bigrams.score(text, 0, 4),
+                     1e-5);
+        assertTrue(bigrams.score(indices("AB"), 0, 2)
+                   > bigrams.score(indices("AC"), 0, 2));
+    }
+
+    @Test
+    public void testRead() {
+        NGrams read =
+            NGrams.read(UPPER, new Scanner("TH 3 HE 2 ET 2\nHT 1 TH 1"));
+        NGrams counted = NGrams.count(UPPER, 2, "THE THE TH TH");
+        int[] text = indices("THEXTH");
+        assertEquals(counted.score(text, 0, 6), read.score(text, 0, 6),
+                     1e-5);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testReadMixedLengths() {
+        NGrams.read(UPPER, new Scanner("THE 3 HE 2"));
+    }
+
+    @Test
+    public void testSubstitutedScore() {
+        NGrams trigrams = NGrams.count(UPPER, 3, ENGLISH);
+        int[] text = indices("QWERTYUIOP");
+        int[] sub = new int[text.length * 26];
+        int[] map = new int[26];
+        for (int i = 0; i < text.length; i++) {
+            for (int c = 0; c < 26; c++) {
+                sub[i * 26 + c] = (c + i) % 26;
+            }
+        }
+        for (int c = 0; c < 26; c++) {
+            map[c] = 25 - c;
+        }
+        int[] converted = new int[text.length];
+        for (int i = 0; i < text.length; i++) {
+            converted[i] = map[sub[map[text[i]] + i * 26]];
+        }
+        assertEquals(trigrams.score(converted, 0, converted.length),
+                     trigrams.score(text, text.length, sub, map), 1e-5);
+    }
+
+    @Test
+    public void testSearch() {
+        Configuration config = smallConfiguration();
+        String plugboard = "(AQ) (OT)";
+        Machine m = config.newMachine();
+        m.reconfigure(new String[] {"C", "Beta", "III", "II"}, "KDE",
+                      plugboard);
+        String cipher = m.convert(ENGLISH.substring(0, 400));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<CiphertextAttack.Candidate> found =
+                new CiphertextAttack(config, NGrams.count(UPPER, 3, ENGLISH))
+                .search(cipher, 20, pool);
+            assertEquals(20, found.size());
+            assertEquals("* C Beta III II KDE " + plugboard,
+                         found.get(0).toString());
+            for (int i = 1; i < found.size(); i++) {
+                assertTrue(found.get(i - 1).score() >= found.get(i).score());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDifferentAlphabets() {
+        new CiphertextAttack(smallConfiguration(),
+                             NGrams.count(new Alphabet("AB"), 2, "ABBA"));
+    }
+}
@@ -0,0 +1,570 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** An immutable snapshot of a configured Enigma machine: its rotors'
+ *  wiring at every setting, their notches, and its plugboard, flattened
+ *  into tables.  Rotor positions live in Cursors, so any number of
+ *  threads may encode with one CompiledMachine at once, each through its
+ *  own Cursor.
+ *  @author Pauline Tang
+ */
+final class CompiledMachine {
+
+    /** A snapshot of a machine with alphabet ALPHA, whose slots hold
+     *  ROTORS (ROTORS[0] being the reflector) at settings POSNS, and
+     *  whose plugboard is PLUGBOARD (null if none).  Neither ROTORS nor
+     *  any rotor in it is changed.  I share the rotors' wiring tables,
+     *  which never change, so compiling costs little more than a pass
+     *  over their notches.  For alphabets larger than
+     *  Rotor.MAX_TABLE_SIZE, which have no tables, I retain the rotors
+     *  themselves instead, using only their setting-independent
+     *  conversions, so changing their settings afterwards does not
+     *  affect me. */
+    CompiledMachine(Alphabet alpha, Rotor[] rotors, int[] posns,
+                    Permutation plugboard) {
+        _alphabet = alpha;
+        _size = alpha.size();
+        _numRotors = rotors.length;
+        _start = posns.clone();
+        _rotates = new boolean[_numRotors];
+        _stepsToNotch = new int[_numRotors][_size];
+        _forward = new int[_numRotors][];
+        _backward = new int[_numRotors][];
+        _rotors = _size <= Rotor.MAX_TABLE_SIZE ? null : rotors.clone();
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor r = rotors[i];
+            _rotates[i] = r.rotates();
+            for (int posn = 0; posn < _size; posn++) {
+                _stepsToNotch[i][posn] = r.stepsToNotch(posn);
+            }
+            _forward[i] = r.forwardTable();
+            _backward[i] = r.backwardTable();
+        }
+        _plugForward = new int[_size];
+        _plugInverse = new int[_size];
+        for (int p = 0; p < _size; p++) {
+            _plugForward[p] = plugboard == null ? p : plugboard.permute(p);
+            _plugInverse[p] = plugboard == null ? p : plugboard.invert(p);
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return a new Cursor with the rotor settings I was compiled with. */
+    Cursor newCursor() {
+        return new Cursor(_start);
+    }
+
+    /** Return every setting of my rotors, indexed by slot, from which a
+     *  Cursor would convert the character indices PLAIN in turn into
+     *  EXPECTED, in odometer order, the rightmost slot varying fastest.
+     *  The reflector's setting is always 0.
+     *
+     *  While all but the rightmost rotor stand still, they and the
+     *  reflector act as one fixed permutation.  These permutations are
+     *  built up a slot at a time from the reflector outwards as the
+     *  settings are enumerated, so each costs only a pass through one
+     *  rotor's tables, and each character of PLAIN then costs five table
+     *  lookups.  Settings under which other rotors move during PLAIN are
+     *  finished with a Cursor if the characters before the move match.
+     *  Each setting is abandoned at the first character that does not
+     *  match. */
+    List<int[]> settingsConverting(int[] plain, int[] expected) {
+        List<int[]> result = new ArrayList<>();
+        int[] posns = new int[_numRotors];
+        Cursor cursor = newCursor();
+        if (_rotors != null) {
+            do {
+                cursor.moveTo(posns);
+                if (cursor.converts(plain, expected)) {
+                    result.add(posns.clone());
+                }
+            } while (nextSetting(posns, 1, _numRotors));
+            return result;
+        }
+        int[][] inner = new int[_numRotors - 1][_size];
+        for (int c = 0; c < _size; c++) {
+            inner[0][c] = _forward[0][c];
+        }
+        settingsConverting(1, posns, inner, plain, expected, cursor, result);
+        return result;
+    }
+
+    /** Add to RESULT the settings, as for settingsConverting(PLAIN,
+     *  EXPECTED), that agree with POSNS[1 .. K-1], where INNER[K-1] is
+     *  the permutation performed by the reflector and the rotors in
+     *  slots 1 .. K-1 at those settings.  Uses CURSOR to try settings
+     *  under which rotors other than the rightmost move, and INNER[K ..]
+     *  as scratch. */
+    private void settingsConverting(int k, int[] posns, int[][] inner,
+                                    int[] plain, int[] expected,
+                                    Cursor cursor, List<int[]> result) {
+        int fast = _numRotors - 1;
+        if (k == fast) {
+            settingsConverting(posns, inner[k - 1], plain, expected,
+                               cursor, result);
+            return;
+        }
+        int[] below = inner[k - 1], layer = inner[k];
+        int[] forward = _forward[k], backward = _backward[k];
+        for (int posn = 0; posn < _size; posn++) {
+            posns[k] = posn;
+            int off = posn * _size;
+            for (int c = 0; c < _size; c++) {
+                layer[c] = backward[off + below[forward[off + c]]];
+            }
+            settingsConverting(k + 1, posns, inner, plain, expected,
+                               cursor, result);
+        }
+        posns[k] = 0;
+    }
+
+    /** Add to RESULT the settings, as for settingsConverting(PLAIN,
+     *  EXPECTED), that agree with POSNS except perhaps in the rightmost
+     *  slot, where INNER is the permutation performed by the reflector
+     *  and the other rotors at those settings.  Uses CURSOR to try
+     *  settings under which rotors other than the rightmost move. */
+    private void settingsConverting(int[] posns, int[] inner,
+                                    int[] plain, int[] expected,
+                                    Cursor cursor, List<int[]> result) {
+        int fast = _numRotors - 1;
+        boolean still = true;
+        for (int i = 1; i < fast; i++) {
+            boolean atNotch =
+                _rotates[i - 1] && _stepsToNotch[i][posns[i]] == 0;
+            boolean pushed =
+                i + 1 < fast && _stepsToNotch[i + 1][posns[i + 1]] == 0;
+            still &= !(_rotates[i] && (atNotch || pushed));
+        }
+        int[] forward = _forward[fast], backward = _backward[fast];
+        for (int p = 0; p < _size; p++) {
+            posns[fast] = p;
+            int limit = !still ? 0
+                : !_rotates[fast - 1] ? plain.length
+                : Math.min(plain.length, _stepsToNotch[fast][p]);
+            boolean match = true;
+            int q = p;
+            for (int k = 0; k < limit && match; k++) {
+                q = q + 1 == _size ? 0 : q + 1;
+                int c = forward[q * _size + _plugForward[plain[k]]];
+                c = backward[q * _size + inner[c]];
+                match = _plugInverse[c] == expected[k];
+            }
+            if (match && limit < plain.length) {
+                cursor.moveTo(posns);
+                match = cursor.converts(plain, expected);
+            }
+            if (match) {
+                result.add(posns.clone());
+            }
+        }
+        posns[fast] = 0;
+    }
+
+    /** Return the settings of my rotors, indexed by slot, from which N
+     *  keypresses lead to the settings POSNS, in odometer order.
+     *  Non-moving rotors keep their settings and the rightmost rotor moves
+     *  on every keypress, so only the settings of the other moving rotors
+     *  need be tried. */
+    List<int[]> settingsBefore(int[] posns, long n) {
+        int fast = _numRotors - 1;
+        int[] start = posns.clone();
+        start[fast] = (int) ((posns[fast] + _size - n % _size) % _size);
+        int[] moving = new int[_numRotors];
+        int numMoving = 0;
+        for (int i = 1; i < fast; i++) {
+            if (_rotates[i]) {
+                start[i] = 0;
+                moving[numMoving] = i;
+                numMoving += 1;
+            }
+        }
+        List<int[]> result = new ArrayList<>();
+        Cursor cursor = newCursor();
+        boolean more;
+        do {
+            cursor.moveTo(start);
+            cursor.skip(n);
+            if (Arrays.equals(cursor._posns, posns)) {
+                result.add(start.clone());
+            }
+            more = false;
+            for (int k = numMoving - 1; k >= 0 && !more; k--) {
+                int i = moving[k];
+                start[i] = start[i] + 1 == _size ? 0 : start[i] + 1;
+                more = start[i] != 0;
+            }
+        } while (more);
+        return result;
+    }
+
+    /** Advance POSNS[FROM .. TO-1] to the next combination of settings
+     *  in odometer order, the rightmost varying fastest.  Return false if
+     *  they were the last combination, leaving them all zeros. */
+    boolean nextSetting(int[] posns, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            posns[i] += 1;
+            if (posns[i] < _size) {
+                return true;
+            }
+            posns[i] = 0;
+        }
+        return false;
+    }
+
+    /** The rotor settings of one encoding session on a CompiledMachine.
+     *  A Cursor is not thread-safe, but is cheap enough to create one
+     *  per thread or per message. */
+    final class Cursor {
+
+        /** A cursor at the rotor settings POSNS, indexed by slot. */
+        private Cursor(int[] posns) {
+            _posns = posns.clone();
+        }
+
+        /** Return a new Cursor at my current rotor settings, which does
+         *  not count its steps until told to (see counting()). */
+        Cursor copy() {
+            return new Cursor(_posns);
+        }
+
+        /** Count my advances of rotors other than the rightmost from now
+         *  on, if Metrics.ENABLED, so that steps() and doubleSteps()
+         *  report them.  Cursors doing trial conversions, as in the
+         *  attacks, are not counted.  Returns me. */
+        Cursor counting() {
+            _counting = Metrics.ENABLED;
+            return this;
+        }
+
+        /** Return my rotor settings, indexed by slot. */
+        int[] positions() {
+            return _posns.clone();
+        }
+
+        /** Store my rotor settings, indexed by slot, in POSNS. */
+        void positions(int[] posns) {
+            System.arraycopy(_posns, 0, posns, 0, _numRotors);
+        }
+
+        /** Set my rotor settings to POSNS, indexed by slot. */
+        void moveTo(int[] posns) {
+            System.arraycopy(posns, 0, _posns, 0, _numRotors);
+        }
+
+        /** Set my rotor settings to those of OTHER, a Cursor on the same
+         *  CompiledMachine. */
+        void moveTo(Cursor other) {
+            moveTo(other._posns);
+        }
+
+        /** Returns the result of converting the input character C (as an
+         *  index) at my current settings, without advancing my rotors. */
+        int convertWithoutAdvancing(int c) {
+            return convertAt(c);
+        }
+
+        /** Returns the result of converting the input character C (as an
+         *  index in the range 0..alphabet size - 1), after first
+         *  advancing my rotors, exactly as Machine.convert(int) would. */
+        int convert(int c) {
+            step();
+            return convertAt(c);
+        }
+
+        /** Return true iff converting the character indices PLAIN in
+         *  turn, as convert(int) would, gives EXPECTED.  Stops at the
+         *  first character that does not, so I am left advanced by an
+         *  unspecified number of keypresses. */
+        boolean converts(int[] plain, int[] expected) {
+            for (int i = 0; i < plain.length; i++) {
+                step();
+                if (convertAt(plain[i]) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the encoding/decoding of MSG, updating my rotor
+         *  settings accordingly.  As for Machine.convert(String), blanks
+         *  are copied through unchanged. */
+        String convert(String msg) {
+            char[] buf = msg.toCharArray();
+            convert(buf, 0, buf.length, buf);
+            return new String(buf);
+        }
+
+        /** Convert IN[START .. END-1] into the same positions of OUT,
+         *  which may be IN, updating my rotor settings.  Blanks are
+         *  copied through unchanged. */
+        void convert(char[] in, int start, int end, char[] out) {
+            if (_rotors != null) {
+                for (int i = start; i < end; i++) {
+                    char ch = in[i];
+                    out[i] = ch == ' ' ? ch
+                        : _alphabet.toChar(convert(toIndex(ch)));
+                }
+                return;
+            }
+            int[] block = block(), where = _where;
+            int i = start;
+            while (i < end) {
+                int n;
+                for (n = 0; n < BATCH && i < end; i++) {
+                    char ch = in[i];
+                    if (ch == ' ') {
+                        out[i] = ch;
+                    } else {
+                        where[n] = i;
+                        block[n] = toIndex(ch);
+                        n += 1;
+                    }
+                }
+                convertBlock(block, n);
+                for (int k = 0; k < n; k++) {
+                    out[where[k]] = _alphabet.toChar(block[k]);
+                }
+            }
+        }
+
+        /** Convert the character indices MSG[START .. END-1] in place,
+         *  updating my rotor settings, with the same result as calling
+         *  convert(int) on each in turn.  The work is done a block of
+         *  BATCH characters at a time: first the rotor settings for
+         *  every character in the block are worked out, then each rotor
+         *  in turn is applied to the whole block.  Once the settings are
+         *  known, the characters are independent, so each of those
+         *  passes is a loop of table lookups with no dependence from one
+         *  character to the next, whose loads the processor can overlap.
+         *  (The loops are not vectorized: the JIT does not turn indexed
+         *  loads such as these into SIMD gathers.) */
+        void convert(int[] msg, int start, int end) {
+            if (_rotors != null) {
+                for (int i = start; i < end; i++) {
+                    msg[i] = convert(msg[i]);
+                }
+                return;
+            }
+            int[] block = block();
+            for (int i = start; i < end; i += BATCH) {
+                int n = Math.min(BATCH, end - i);
+                System.arraycopy(msg, i, block, 0, n);
+                convertBlock(block, n);
+                System.arraycopy(block, 0, msg, i, n);
+            }
+        }
+
+        /** Convert BLOCK[0 .. N-1], N <= BATCH, in place, advancing my
+         *  rotors before each character. */
+        private void convertBlock(int[] block, int n) {
+            int[][] offsets = _offsets;
+            int[] posns = _posns;
+            int fast = _numRotors - 1;
+            for (int k = 0; k < n; k++) {
+                step();
+                for (int i = 0; i < _numRotors; i++) {
+                    offsets[i][k] = posns[i] * _size;
+                }
+            }
+            int[] plug = _plugForward;
+            for (int k = 0; k < n; k++) {
+                block[k] = plug[block[k]];
+            }
+            for (int i = fast; i >= 0; i--) {
+                int[] table = _forward[i], off = offsets[i];
+                for (int k = 0; k < n; k++) {
+                    block[k] = table[off[k] + block[k]];
+                }
+            }
+            for (int i = 1; i <= fast; i++) {
+                int[] table = _backward[i], off = offsets[i];
+                for (int k = 0; k < n; k++) {
+                    block[k] = table[off[k] + block[k]];
+                }
+            }
+            plug = _plugInverse;
+            for (int k = 0; k < n; k++) {
+                block[k] = plug[block[k]];
+            }
+        }
+
+        /** Return my scratch block of BATCH character indices, creating
+         *  it and my other scratch arrays on first use. */
+        private int[] block() {
+            if (_block == null) {
+                _block = new int[BATCH];
+                _where = new int[BATCH];
+                _offsets = new int[_numRotors][BATCH];
+            }
+            return _block;
+        }
+
+        /** Return the index of CH in my alphabet. */
+        private int toIndex(char ch) {
+            int ind = _alphabet.toInt(ch);
+            if (ind == -1) {
+                throw error("character '%c' not in alphabet", ch);
+            }
+            return ind;
+        }
+
+        /** Advance my rotors as N calls to convert(int) would.  Runs of
+         *  keypresses that move only the rightmost rotor, which is
+         *  everything between its notches while no other rotor is at a
+         *  notch, are taken in one jump, so this takes time proportional
+         *  to the number of notch crossings rather than N. */
+        void skip(long n) {
+            int fast = _numRotors - 1;
+            while (n > 0) {
+                boolean others = false;
+                for (int i = fast - 1; i > 0 && !others; i--) {
+                    others = needsAdvance(i);
+                }
+                long run = others ? 0
+                    : Math.min(n, _stepsToNotch[fast][_posns[fast]]);
+                if (run > 0) {
+                    _posns[fast] = (int) ((_posns[fast] + run) % _size);
+                    n -= run;
+                } else {
+                    step();
+                    n -= 1;
+                }
+            }
+        }
+
+        /** Advance my rotors by one keypress. */
+        private void step() {
+            int[] posns = _posns;
+            for (int i = 1; i < _numRotors - 1; i++) {
+                if (needsAdvance(i) && _rotates[i]) {
+                    if (Metrics.ENABLED && _counting) {
+                        countStep(i);
+                    }
+                    posns[i] = posns[i] + 1 == _size ? 0 : posns[i] + 1;
+                }
+            }
+            int fast = _numRotors - 1;
+            posns[fast] = posns[fast] + 1 == _size ? 0 : posns[fast] + 1;
+        }
+
+        /** Count the advance of the rotor in slot I about to be made by
+         *  step() in _steps and _doubleSteps. */
+        private void countStep(int i) {
+            _steps += 1;
+            if (_stepsToNotch[i + 1][_posns[i + 1]] != 0) {
+                _doubleSteps += 1;
+            }
+        }
+
+        /** Return the number of advances of rotors other than the
+         *  rightmost made by my conversions since counting(), if
+         *  Metrics.ENABLED, or 0. */
+        long steps() {
+            return _steps;
+        }
+
+        /** Return the number of those advances that were double steps
+         *  (see Metrics.DOUBLE_STEPS). */
+        long doubleSteps() {
+            return _doubleSteps;
+        }
+
+        /** Return true iff the rotor in slot I, 0 < I < numRotors() - 1,
+         *  is pushed forward on the next keypress. */
+        private boolean needsAdvance(int i) {
+            return _stepsToNotch[i + 1][_posns[i + 1]] == 0
+                || (_rotates[i - 1] && _stepsToNotch[i][_posns[i]] == 0);
+        }
+
+        /** Return the conversion of C through the plugboard, rotors, and
+         *  reflector at my current settings. */
+        private int convertAt(int c) {
+            int[] posns = _posns;
+            int result = _plugForward[c];
+            if (_rotors == null) {
+                for (int i = _numRotors - 1; i >= 0; i--) {
+                    result = _forward[i][posns[i] * _size + result];
+                }
+                for (int i = 1; i < _numRotors; i++) {
+                    result = _backward[i][posns[i] * _size + result];
+                }
+            } else {
+                for (int i = _numRotors - 1; i >= 0; i--) {
+                    result = _rotors[i].convertForward(result, posns[i]);
+                }
+                for (int i = 1; i < _numRotors; i++) {
+                    result = _rotors[i].convertBackward(result, posns[i]);
+                }
+            }
+            return _plugInverse[result];
+        }
+
+        /** Rotor settings, indexed by slot. */
+        private final int[] _posns;
+
+        /** Advances of rotors other than the rightmost, and double steps
+         *  among them, counted while _counting. */
+        private long _steps, _doubleSteps;
+
+        /** True iff my steps are counted (see counting()). */
+        private boolean _counting;
+
+        /** Scratch block of character indices for convert(int[], ...),
+         *  or null until first needed. */
+        private int[] _block;
+
+        /** Where in its char[] each character of _block came from. */
+        private int[] _where;
+
+        /** Table offsets (setting * alphabet size) of each slot for each
+         *  character of _block, indexed by slot and then character. */
+        private int[][] _offsets;
+    }
+
+    /** Number of characters converted together by Cursor's batch
+     *  conversions. */
+    static final int BATCH = 256;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Size of my alphabet and number of rotor slots. */
+    private final int _size, _numRotors;
+
+    /** Rotor settings at the time I was compiled, indexed by slot. */
+    private final int[] _start;
+
+    /** Whether the rotor in each slot rotates. */
+    private final boolean[] _rotates;
+
+    /** Number of advances from each setting of the rotor in each slot to
+     *  its next notch (see Rotor.stepsToNotch). */
+    private final int[][] _stepsToNotch;
+
+    /** Forward and backward conversions of the rotor in each slot at
+     *  every setting, shared with the rotors (see Rotor.forwardTable), or
+     *  null if my alphabet is too large for them. */
+    private final int[][] _forward, _backward;
+
+    /** The rotors in each slot, used in place of the wiring tables for
+     *  alphabets larger than Rotor.MAX_TABLE_SIZE; null otherwise.  Only
+     *  their setting-independent conversions are used. */
+    private final Rotor[] _rotors;
+
+    /** Plugboard mapping and its inverse. */
+    private final int[] _plugForward, _plugInverse;
+}
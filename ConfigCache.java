@@ -0,0 +1,162 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of parsed Configurations keyed by a SHA-256 hash of the
+ *  contents of their configuration files.  The least recently used
+ *  entries are evicted beyond a fixed capacity.  A cache may also keep
+ *  each configuration it parses in a directory, in the binary form of
+ *  BinaryFormat, so that later runs skip parsing entirely.
+ *  A ConfigCache may be shared among threads.
+ *  @author Pauline Tang
+ */
+final class ConfigCache {
+
+    /** A cache holding at most CAPACITY configurations in memory. */
+    ConfigCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /** A cache holding at most CAPACITY configurations in memory and
+     *  keeping compiled configurations in directory DIR (none if
+     *  null). */
+    ConfigCache(int capacity, File dir) {
+        _dir = dir;
+        _entries = new LinkedHashMap<String, Configuration>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Configuration> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Return the configuration described by the file named NAME. */
+    Configuration get(String name) {
+        try {
+            return get(Files.readAllBytes(new File(name).toPath()));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the configuration described by CONTENTS, the contents of a
+     *  configuration file. */
+    Configuration get(byte[] contents) {
+        String key = hash(contents);
+        synchronized (_entries) {
+            Configuration config = _entries.get(key);
+            if (config != null) {
+                return config;
+            }
+        }
+        Configuration config = load(key);
+        if (config == null) {
+            config = Configuration.read(
+                new Scanner(new ByteArrayInputStream(contents)));
+            store(key, config);
+        }
+        synchronized (_entries) {
+            _entries.put(key, config);
+        }
+        return config;
+    }
+
+    /** Return the number of configurations held in memory. */
+    int size() {
+        synchronized (_entries) {
+            return _entries.size();
+        }
+    }
+
+    /** Return the compiled configuration with hash KEY from my directory,
+     *  or null if there is none or it cannot be read.  An entry that
+     *  cannot be decoded is deleted, so that it is replaced by the next
+     *  store. */
+    private Configuration load(String key) {
+        if (_dir == null) {
+            return null;
+        }
+        Path file = entryFile(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return BinaryFormat.decodeConfiguration(BinaryFormat.map(file));
+        } catch (RuntimeException excp) {
+            delete(file);
+            return null;
+        }
+    }
+
+    /** Write CONFIG, whose hash is KEY, to my directory, if I have one.
+     *  Failures only cost a later reparse, and so are ignored. */
+    private void store(String key, Configuration config) {
+        if (_dir == null) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            Files.createDirectories(_dir.toPath());
+            tmp = Files.createTempFile(_dir.toPath(), key, ".tmp");
+            Files.write(tmp, BinaryFormat.encode(config));
+            Files.move(tmp, entryFile(key),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            return;
+        } finally {
+            if (tmp != null) {
+                delete(tmp);
+            }
+        }
+    }
+
+    /** Delete FILE if it exists, ignoring failures. */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException excp) {
+            /* A stale file only costs a later reparse. */
+        }
+    }
+
+    /** Return the file in my directory holding the configuration with
+     *  hash KEY. */
+    private Path entryFile(String key) {
+        return new File(_dir, key + ".enigma").toPath();
+    }
+
+    /** Return the SHA-256 hash of CONTENTS in hexadecimal. */
+    private static String hash(byte[] contents) {
+        try {
+            byte[] digest =
+                MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 unavailable");
+        }
+    }
+
+    /** Directory of compiled configurations, or null. */
+    private final File _dir;
+
+    /** Configurations held in memory, by hash, in order of use. */
+    private final LinkedHashMap<String, Configuration> _entries;
+}
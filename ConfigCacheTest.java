@@ -0,0 +1,142 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the ConfigCache class.
+ *  @author Pauline Tang
+ */
+public class ConfigCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Scratch directory, deleted after each test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the contents of a configuration file for a machine with
+     *  NUMROTORS slots, whose rotors are named by NAMES, in order: a
+     *  reflector, a fixed rotor, and then moving rotors. */
+    private byte[] configFile(int numRotors, String... names) {
+        String[] wirings = {
+            "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)"
+            + " (TV)",
+            "(ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+            "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+            "(FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+            "(ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        };
+        StringBuilder config = new StringBuilder();
+        config.append(String.format("ABCDEFGHIJKLMNOPQRSTUVWXYZ%n"));
+        config.append(String.format("%d %d%n", numRotors, numRotors - 2));
+        for (int k = 0; k < names.length; k++) {
+            String type = k == 0 ? "R" : k == 1 ? "N" : "MQ";
+            config.append(String.format("%s %s %s%n", names[k], type,
+                                        wirings[k]));
+        }
+        return config.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Return the names of the rotors of CONFIG, in order. */
+    private List<String> rotorNames(Configuration config) {
+        List<String> result = new ArrayList<>();
+        for (Rotor r : config.rotors()) {
+            result.add(r.name());
+        }
+        return result;
+    }
+
+    /** Return the files in DIR whose names end with SUFFIX. */
+    private File[] filesIn(File dir, String suffix) {
+        return dir.listFiles((d, name) -> name.endsWith(suffix));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testEviction() {
+        ConfigCache cache = new ConfigCache(2);
+        byte[] a = configFile(3, "B", "Beta", "I"),
+            b = configFile(4, "B", "Beta", "I", "II"),
+            c = configFile(5, "B", "Beta", "I", "II", "III");
+        Configuration configA = cache.get(a), configB = cache.get(b);
+        assertSame(configA, cache.get(a));
+        cache.get(c);
+        assertEquals(2, cache.size());
+        assertSame(configA, cache.get(a));
+        assertNotSame(configB, cache.get(b));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testKeyedByContents() throws IOException {
+        ConfigCache cache = new ConfigCache(4);
+        File first = folder.newFile("first.conf"),
+            second = folder.newFile("second.conf");
+        Files.write(first.toPath(), configFile(3, "B", "Beta", "I"));
+        Files.write(second.toPath(), configFile(3, "B", "Beta", "I"));
+        Configuration config = cache.get(first.getPath());
+        assertSame(config, cache.get(second.getPath()));
+        assertEquals(1, cache.size());
+
+        Files.write(first.toPath(), configFile(4, "B", "Beta", "I", "II"));
+        Configuration changed = cache.get(first.getPath());
+        assertNotSame(config, changed);
+        assertEquals(4, changed.numRotors());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testReadBack() throws IOException {
+        File dir = folder.newFolder("cache");
+        byte[] contents = configFile(3, "B", "Beta", "I");
+        new ConfigCache(1, dir).get(contents);
+        File[] entries = filesIn(dir, ".enigma");
+        assertEquals(1, entries.length);
+        assertEquals(0, filesIn(dir, ".tmp").length);
+
+        Configuration other = Configuration.read(new Scanner(
+            new String(configFile(4, "B", "Beta", "I", "II"),
+                       StandardCharsets.US_ASCII)));
+        Files.write(entries[0].toPath(), BinaryFormat.encode(other));
+        Configuration config = new ConfigCache(1, dir).get(contents);
+        assertEquals(rotorNames(other), rotorNames(config));
+        assertEquals(4, config.numRotors());
+    }
+
+    @Test
+    public void testCorruptEntry() throws IOException {
+        File dir = folder.newFolder("cache");
+        byte[] contents = configFile(3, "B", "Beta", "I");
+        Configuration expected = new ConfigCache(1, dir).get(contents);
+        File entry = filesIn(dir, ".enigma")[0];
+        byte[] good = Files.readAllBytes(entry.toPath());
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.seek(6);
+            file.writeInt(-1);
+        }
+
+        Configuration config = new ConfigCache(1, dir).get(contents);
+        assertEquals(rotorNames(expected), rotorNames(config));
+        assertEquals(3, config.numRotors());
+        assertArrayEquals(good, Files.readAllBytes(entry.toPath()));
+        assertEquals(0, filesIn(dir, ".tmp").length);
+    }
+
+}
@@ -0,0 +1,49 @@
+package enigma;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** The current library of available rotors, published as an immutable
+ *  Configuration that may be replaced while machines are in use.
+ *  Readers never lock: current() is a single volatile read, and a
+ *  machine made from the snapshot it returns shares that snapshot's
+ *  wiring, so it goes on converting as it began however the registry
+ *  changes afterwards.  Writers build a new snapshot and swap it in
+ *  with compare-and-set, rebuilding it if another writer got there
+ *  first, so concurrent changes are never lost.  A ConfigRegistry may
+ *  be shared among threads.
+ *  @author Pauline Tang
+ */
+final class ConfigRegistry {
+
+    /** A registry whose first snapshot is CONFIG. */
+    ConfigRegistry(Configuration config) {
+        _current = new AtomicReference<>(config);
+    }
+
+    /** Return the current snapshot. */
+    Configuration current() {
+        return _current.get();
+    }
+
+    /** Return a new machine made from the current snapshot. */
+    Machine newMachine() {
+        return current().newMachine();
+    }
+
+    /** Make CONFIG the current snapshot, returning the one it
+     *  replaces. */
+    Configuration replace(Configuration config) {
+        return _current.getAndSet(config);
+    }
+
+    /** Add ROTORS to the available rotors, each replacing any with the
+     *  same name (see Configuration.withRotors), and return the new
+     *  snapshot. */
+    Configuration putRotors(Collection<Rotor> rotors) {
+        return _current.updateAndGet(old -> old.withRotors(rotors));
+    }
+
+    /** The current snapshot. */
+    private final AtomicReference<Configuration> _current;
+}
@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigRegistry class.
+ *  @author Pauline Tang
+ */
+public class ConfigRegistryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the conversion of MSG by M set up with rotors B, Beta,
+     *  III, IV, and I at AXLE. */
+    private String convert(Machine m, String msg) {
+        m.reconfigure(new String[] {"B", "Beta", "III", "IV", "I"}, "AXLE",
+                      "");
+        return m.convert(msg);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testPutRotors() {
+        ConfigRegistry registry = new ConfigRegistry(navalConfiguration());
+        Configuration first = registry.current();
+        Machine before = registry.newMachine();
+        String msg = "FROM HIS SHOULDER HIAWATHA";
+        String expected = convert(before, msg);
+
+        Rotor replacement = new MovingRotor("I", new Permutation(
+            NAVALA.get("II"), UPPER), "E");
+        Configuration second = registry.putRotors(List.of(replacement));
+        assertSame(second, registry.current());
+        assertEquals(first.rotors().size(), second.rotors().size());
+        assertNotEquals(expected, convert(registry.newMachine(), msg));
+        assertEquals(expected, convert(before, msg));
+        assertEquals(expected, convert(first.newMachine(), msg));
+
+        Configuration third = registry.putRotors(List.of(navalRotor("V", "Z")));
+        assertEquals(first.rotors().size() + 1, third.rotors().size());
+        assertSame(third, registry.replace(first));
+        assertEquals(expected, convert(registry.newMachine(), msg));
+    }
+
+    @Test
+    public void testConcurrentPuts() throws InterruptedException {
+        ConfigRegistry registry = new ConfigRegistry(navalConfiguration());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 25; k++) {
+                    registry.putRotors(List.of(new FixedRotor(
+                        "F" + id + "_" + k,
+                        new Permutation(NAVALA.get("Beta"), UPPER))));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(5 + 100, registry.current().rotors().size());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWrongAlphabet() {
+        new ConfigRegistry(navalConfiguration()).putRotors(List.of(
+            new FixedRotor("X", new Permutation("(AB)",
+                                                new Alphabet("ABC")))));
+    }
+}
@@ -0,0 +1,192 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed Enigma configuration: an alphabet, the numbers of rotor slots
+ *  and pawls, and the available rotors.  A Configuration is never
+ *  changed once built; machines made from it get their own rotors, which
+ *  share the parsed wiring, so it may be shared freely among threads.
+ *  @author Pauline Tang
+ */
+final class Configuration {
+
+    /** A configuration with alphabet ALPHA, NUMROTORS rotor slots, PAWLS
+     *  pawls, and the available rotors ALLROTORS, which are copied. */
+    Configuration(Alphabet alpha, int numRotors, int pawls,
+                  Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : allRotors) {
+            rotors.add(r.copy());
+        }
+        _allRotors = Collections.unmodifiableList(rotors);
+    }
+
+    /** Return the configuration described by the contents of CONFIG, in
+     *  the format of a configuration file. */
+    static Configuration read(Scanner config) {
+        try {
+            Alphabet alphabet = new Alphabet(config.next());
+            int numRotors = config.nextInt();
+            int pawls = config.nextInt();
+
+            ArrayList<Rotor> allR = new ArrayList<Rotor>();
+
+            while (config.hasNext()) {
+                if (config.hasNext("[\\(\\)]")) {
+                    throw new EnigmaException("bad config");
+                }
+                Rotor r = readRotor(config, alphabet);
+                allR.add(r);
+            }
+            return new Configuration(alphabet, numRotors, pawls, allR);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Return a rotor over ALPHABET, reading its description from
+     *  CONFIG. */
+    private static Rotor readRotor(Scanner config, Alphabet alphabet) {
+        try {
+            String nameRotor = config.next();
+            if (nameRotor.contains("(") || nameRotor.contains(")")) {
+                throw new EnigmaException("bad config");
+            }
+            String typeRotor = config.next();
+            String perm = "";
+
+            while (config.hasNext("\\(.*\\)")) {
+                perm += config.next();
+            }
+
+            Permutation permutate = new Permutation(perm, alphabet);
+
+            if (typeRotor.charAt(0) == 'M') {
+                String notches = "";
+                for (int i = 1; i < typeRotor.length(); i++) {
+                    notches += typeRotor.charAt(i);
+                }
+                return new MovingRotor(nameRotor, permutate, notches);
+            } else if (typeRotor.charAt(0) == 'R') {
+                return new Reflector(nameRotor, permutate);
+            } else {
+                return new FixedRotor(nameRotor, permutate);
+            }
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Return a new machine with my alphabet, slots, and pawls, whose
+     *  available rotors are fresh copies of mine at their 0 settings. */
+    Machine newMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : _allRotors) {
+            rotors.add(r.copy());
+        }
+        return new Machine(_alphabet, _numRotors, _pawls, rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots I specify. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls I specify. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my available rotors, which must not be changed. */
+    List<Rotor> rotors() {
+        return _allRotors;
+    }
+
+    /** Return a configuration like me, but with the rotors ROTORS, which
+     *  must be over an alphabet the size of mine, added to my available
+     *  rotors, each replacing any of mine with the same name.  I am not
+     *  changed. */
+    Configuration withRotors(Collection<Rotor> rotors) {
+        LinkedHashMap<String, Rotor> byName = new LinkedHashMap<>();
+        for (Rotor r : _allRotors) {
+            byName.put(r.name(), r);
+        }
+        for (Rotor r : rotors) {
+            if (r.size() != _alphabet.size()) {
+                throw error("rotor %s does not fit the alphabet", r.name());
+            }
+            byName.put(r.name(), r);
+        }
+        return new Configuration(_alphabet, _numRotors, _pawls,
+                                 byName.values());
+    }
+
+    /** Return every arrangement of my rotors in my slots, each indexed by
+     *  slot, that is laid out like a conventional machine: a reflector,
+     *  then non-moving rotors, then numPawls() moving rotors, none
+     *  repeated. */
+    List<Rotor[]> arrangements() {
+        List<Rotor> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : _allRotors) {
+            if (r.reflecting()) {
+                reflectors.add(r);
+            } else if (r.rotates()) {
+                moving.add(r);
+            } else {
+                fixed.add(r);
+            }
+        }
+        List<List<Rotor>> choices = new ArrayList<>();
+        for (int k = 0; k < _numRotors; k++) {
+            choices.add(k == 0 ? reflectors
+                        : k < _numRotors - _pawls ? fixed : moving);
+        }
+        List<Rotor[]> result = new ArrayList<>();
+        arrange(choices, new Rotor[_numRotors], 0, result);
+        return result;
+    }
+
+    /** Add to RESULT each arrangement that has the rotors in SLOTS[0 ..
+     *  K-1] in those slots, and in each later slot I a rotor from
+     *  CHOICES.get(I) that is in no other slot. */
+    private static void arrange(List<List<Rotor>> choices, Rotor[] slots,
+                                int k, List<Rotor[]> result) {
+        if (k == slots.length) {
+            result.add(slots.clone());
+            return;
+        }
+        for (Rotor r : choices.get(k)) {
+            if (!Arrays.asList(slots).subList(0, k).contains(r)) {
+                slots[k] = r;
+                arrange(choices, slots, k + 1, result);
+            }
+        }
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Num of rotors and pawls in my machines. */
+    private final int _numRotors, _pawls;
+
+    /** My available rotors, which are never set or advanced. */
+    private final List<Rotor> _allRotors;
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext ("crib") attack on Enigma messages.  Given a
+ *  ciphertext and a stretch of the plaintext it came from, a CribAttack
+ *  finds every choice of reflector, rotors, and initial rotor settings
+ *  of a machine with a given configuration and plugboard that turns the
+ *  crib into the corresponding stretch of ciphertext.
+ *
+ *  The rotors are taken to be arranged as Configuration.arrangements()
+ *  describes.  Each arrangement of rotors is compiled
+ *  once (see CompiledMachine), which finds the settings at the start of
+ *  the crib that match it (see CompiledMachine.settingsConverting).
+ *  Working back from those to initial settings is cheap, since there
+ *  are few of them.  Arrangements are searched concurrently.
+ *  @author Pauline Tang
+ */
+final class CribAttack {
+
+    /** An attack on messages enciphered by machines with configuration
+     *  CONFIG and plugboard PLUGBOARD (null if none). */
+    CribAttack(Configuration config, Permutation plugboard) {
+        _config = config;
+        _alphabet = config.alphabet();
+        _numRotors = config.numRotors();
+        _plugboard = plugboard;
+    }
+
+    /** Return every setup, in the order of my configuration's
+     *  arrangements() and then of
+     *  their settings, under which a machine turns CRIB into the
+     *  characters of CIPHERTEXT starting with the one at index OFFSET,
+     *  searching in POOL.  Whitespace in CRIB and CIPHERTEXT is ignored,
+     *  and not counted in OFFSET. */
+    List<Solution> search(String ciphertext, String crib, int offset,
+                          ForkJoinPool pool) {
+        int[] cipher = Attacks.indices(_alphabet, ciphertext);
+        int[] plain = Attacks.indices(_alphabet, crib);
+        if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in ciphertext");
+        }
+        int[] expected = new int[plain.length];
+        System.arraycopy(cipher, offset, expected, 0, plain.length);
+
+        List<Rotor[]> arrangements = _config.arrangements();
+        List<ForkJoinTask<List<Solution>>> tasks = new ArrayList<>();
+        for (Rotor[] rotors : arrangements) {
+            tasks.add(pool.submit(
+                () -> search(rotors, plain, expected, offset)));
+        }
+        List<Solution> result = new ArrayList<>();
+        for (ForkJoinTask<List<Solution>> task : tasks) {
+            result.addAll(task.join());
+        }
+        return result;
+    }
+
+    /** Return every setup with the rotors ROTORS, indexed by slot, under
+     *  which a machine turns the character indices PLAIN into EXPECTED
+     *  after first advancing OFFSET times. */
+    private List<Solution> search(Rotor[] rotors, int[] plain,
+                                  int[] expected, int offset) {
+        CompiledMachine machine =
+            new CompiledMachine(_alphabet, rotors, new int[_numRotors],
+                                _plugboard);
+        List<int[]> starts = new ArrayList<>();
+        for (int[] posns : machine.settingsConverting(plain, expected)) {
+            starts.addAll(machine.settingsBefore(posns, offset));
+        }
+        starts.sort(Arrays::compare);
+        List<Solution> result = new ArrayList<>();
+        for (int[] start : starts) {
+            result.add(new Solution(rotors, start, _alphabet));
+        }
+        return result;
+    }
+
+    /** A setup found by a CribAttack: the rotors in each slot and their
+     *  initial settings. */
+    static final class Solution extends Attacks.Setup {
+
+        /** A solution with ROTORS in my slots, at settings POSNS in
+         *  ALPHABET, each indexed by slot, and no plugboard. */
+        private Solution(Rotor[] rotors, int[] posns, Alphabet alphabet) {
+            super(rotors, posns, alphabet, null);
+        }
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Configuration of the machines attacked. */
+    private final Configuration _config;
+
+    /** Number of rotor slots of the machines attacked. */
+    private final int _numRotors;
+
+    /** The plugboard of the machines attacked, or null. */
+    private final Permutation _plugboard;
+}
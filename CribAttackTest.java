@@ -0,0 +1,111 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CribAttack class.
+ *  @author Pauline Tang
+ */
+public class CribAttackTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the settings lines of every setup of a machine configured
+     *  by CONFIG with plugboard PLUGBOARD that turns CRIB into the
+     *  characters of CIPHER starting at OFFSET, found by trying each in
+     *  turn on a Machine. */
+    private List<String> bruteForce(Configuration config, String plugboard,
+                                    String cipher, String crib,
+                                    int offset) {
+        Machine m = config.newMachine();
+        String expected = cipher.substring(offset, offset + crib.length());
+        List<String> result = new ArrayList<>();
+        for (Rotor[] rotors : config.arrangements()) {
+            String[] names = new String[rotors.length];
+            for (int i = 0; i < rotors.length; i++) {
+                names[i] = rotors[i].name();
+            }
+            for (int k = 0; k < 26 * 26 * 26; k++) {
+                String setting = "" + UPPER.toChar(k / 676)
+                    + UPPER.toChar(k / 26 % 26) + UPPER.toChar(k % 26);
+                m.reconfigure(names, setting, plugboard);
+                for (int i = 0; i < offset; i++) {
+                    m.convert(0);
+                }
+                if (m.convert(crib).equals(expected)) {
+                    result.add("* " + String.join(" ", names) + " "
+                               + setting);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the settings lines of SOLUTIONS. */
+    private List<String> lines(List<CribAttack.Solution> solutions) {
+        List<String> result = new ArrayList<>();
+        for (CribAttack.Solution solution : solutions) {
+            result.add(solution.toString());
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testArrangements() {
+        List<Rotor[]> arrangements = smallConfiguration().arrangements();
+        assertEquals(2 * 1 * 3 * 2, arrangements.size());
+        for (Rotor[] rotors : arrangements) {
+            assertTrue(rotors[0].reflecting());
+            assertEquals("Beta", rotors[1].name());
+            assertTrue(rotors[2].rotates() && rotors[3].rotates());
+            assertNotSame(rotors[2], rotors[3]);
+        }
+    }
+
+    @Test
+    public void testSearch() {
+        Configuration config = smallConfiguration();
+        String plugboard = "(AQ) (TZ)";
+        Machine m = config.newMachine();
+        m.reconfigure(new String[] {"C", "Beta", "III", "II"}, "KDE",
+                      plugboard);
+        String plain = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        String cipher = m.convert(plain);
+        int offset = 25;
+        String crib = plain.substring(offset, offset + 3);
+        CribAttack attack =
+            new CribAttack(config, new Permutation(plugboard, UPPER));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<String> found =
+                lines(attack.search(cipher, crib, offset, pool));
+            assertTrue(found.contains("* C Beta III II KDE"));
+            assertTrue(found.size() > 1);
+            assertEquals(bruteForce(config, plugboard, cipher, crib,
+                                    offset),
+                         found);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCribTooLong() {
+        new CribAttack(smallConfiguration(), null)
+            .search("ABCDE", "XYZ", 3, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,158 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** An in-process encryption service.  A service holds one parsed
+ *  Configuration and runs (settings line, message) jobs on an executor.
+ *  A job takes an idle machine, whose rotors share the configuration's
+ *  parsed wiring, reconfigures it, and returns it when done, so there
+ *  are only as many machines as jobs that have run at once, whether
+ *  the executor reuses its threads or starts a virtual thread per job.
+ *  @author Pauline Tang
+ */
+final class EnigmaService implements AutoCloseable {
+
+    /** A job: a settings line, in the format of the lines of an input
+     *  file that start with '*', and a message to convert with a machine
+     *  set up from it. */
+    static final class Job {
+
+        /** A job converting MESSAGE with a machine set up from SETTINGS. */
+        Job(String settings, String message) {
+            _settings = settings;
+            _message = message;
+        }
+
+        /** Return my settings line. */
+        String settings() {
+            return _settings;
+        }
+
+        /** Return my message. */
+        String message() {
+            return _message;
+        }
+
+        /** Settings line. */
+        private final String _settings;
+
+        /** Message to convert. */
+        private final String _message;
+    }
+
+    /** A service running jobs under CONFIG on EXECUTOR, which the service
+     *  does not shut down. */
+    EnigmaService(Configuration config, ExecutorService executor) {
+        this(config, executor, false);
+    }
+
+    /** A service running jobs under CONFIG on a pool of THREADS
+     *  threads, shut down by close(). */
+    EnigmaService(Configuration config, int threads) {
+        this(config, Executors.newFixedThreadPool(threads), true);
+    }
+
+    /** A service running jobs under CONFIG on EXECUTOR, which close()
+     *  shuts down iff OWNED. */
+    private EnigmaService(Configuration config, ExecutorService executor,
+                          boolean owned) {
+        _config = config;
+        _executor = executor;
+        _owned = owned;
+        _idle = new ConcurrentLinkedQueue<>();
+    }
+
+    /** Return a service running jobs under CONFIG, each on a virtual
+     *  thread of its own where the JVM provides them, and otherwise on
+     *  a pool of platform threads created as needed. */
+    static EnigmaService withVirtualThreads(Configuration config) {
+        return new EnigmaService(config, newThreadPerTaskExecutor(), true);
+    }
+
+    /** Return an executor running each task in a new virtual thread, if
+     *  the runtime has them, or else in a pooled platform thread.  This
+     *  code builds for runtimes without them, so looks them up
+     *  reflectively. */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Return my configuration. */
+    Configuration configuration() {
+        return _config;
+    }
+
+    /** Return the eventual result of converting MESSAGE with a machine
+     *  set up according to the settings line SETTINGS.  The result is
+     *  as for Machine.convert(String): blanks are copied through, and
+     *  any other character not in the alphabet is an error.  Errors,
+     *  in SETTINGS as well as MESSAGE, are reported when the result is
+     *  retrieved: Future.get() throws an ExecutionException whose cause
+     *  is the EnigmaException. */
+    Future<String> submit(String settings, String message) {
+        return _executor.submit(() -> convert(settings, message));
+    }
+
+    /** Return the eventual results of JOBS, in the same order, as for
+     *  submit(String, String). */
+    List<Future<String>> submitAll(List<Job> jobs) {
+        ArrayList<Future<String>> results = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            results.add(submit(job.settings(), job.message()));
+        }
+        return results;
+    }
+
+    /** Return the result of converting MESSAGE with an idle machine set
+     *  up according to SETTINGS. */
+    String convert(String settings, String message) {
+        Machine m = _idle.poll();
+        if (m == null) {
+            m = _config.newMachine();
+        }
+        try {
+            Main.setUp(m, settings);
+            return m.convert(message);
+        } finally {
+            _idle.offer(m);
+        }
+    }
+
+    /** Return the number of machines not in use by a job. */
+    int idleMachines() {
+        return _idle.size();
+    }
+
+    /** Shut down my executor if I created it, after the jobs already
+     *  submitted finish. */
+    @Override
+    public void close() {
+        if (_owned) {
+            _executor.shutdown();
+        }
+    }
+
+    /** Configuration shared by all jobs. */
+    private final Configuration _config;
+
+    /** Machines not in use by a job. */
+    private final ConcurrentLinkedQueue<Machine> _idle;
+
+    /** Runs my jobs. */
+    private final ExecutorService _executor;
+
+    /** True iff I created _executor and so must shut it down. */
+    private final boolean _owned;
+}
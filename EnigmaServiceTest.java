@@ -0,0 +1,177 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EnigmaService class.
+ *  @author Pauline Tang
+ */
+public class EnigmaServiceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings lines for navalConfiguration(), differing in rotors,
+     *  settings, and plugboards. */
+    private static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* B Beta I III IV ZZZZ",
+        "* B Beta IV I III AAIP (AZ)",
+        "* B Beta III I IV QEVJ (MN) (OP) (QR)",
+    };
+
+    /** Return the conversion of MSG by a new machine of
+     *  navalConfiguration() set up by the settings line SETTINGS. */
+    private String expected(String settings, String msg) {
+        Machine m = navalConfiguration().newMachine();
+        Main.setUp(m, settings);
+        return m.convert(msg);
+    }
+
+    /** Return jobs converting N messages of different lengths with each
+     *  of SETTINGS in turn. */
+    private List<EnigmaService.Job> jobs(int n) {
+        List<EnigmaService.Job> result = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            result.add(new EnigmaService.Job(SETTINGS[k % SETTINGS.length],
+                                             randomMessage(50 + 7 * k)));
+        }
+        return result;
+    }
+
+    /** Assert that RESULTS are the conversions of JOBS, in order. */
+    private void assertResults(List<EnigmaService.Job> jobs,
+                               List<Future<String>> results)
+        throws InterruptedException, ExecutionException {
+        assertEquals(jobs.size(), results.size());
+        for (int k = 0; k < jobs.size(); k++) {
+            EnigmaService.Job job = jobs.get(k);
+            assertEquals("job " + k, expected(job.settings(), job.message()),
+                         results.get(k).get());
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSubmit() throws Exception {
+        try (EnigmaService service =
+             new EnigmaService(navalConfiguration(), 2)) {
+            Future<String> result =
+                service.submit(SETTINGS[0], "FROM HIS SHOULDER HIAWATHA");
+            assertEquals("QVPQ SOK OILPUBKJ ZPISFXDW", result.get());
+        }
+    }
+
+    @Test
+    public void testSubmitAllInOrder() throws Exception {
+        List<EnigmaService.Job> jobs = jobs(200);
+        try (EnigmaService service =
+             new EnigmaService(navalConfiguration(), 4)) {
+            assertResults(jobs, service.submitAll(jobs));
+        }
+    }
+
+    @Test
+    public void testMachinePerThread() throws Exception {
+        List<EnigmaService.Job> jobs = jobs(40);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EnigmaService service =
+             new EnigmaService(navalConfiguration(), executor)) {
+            List<Future<String>> results = new ArrayList<>();
+            for (EnigmaService.Job job : jobs) {
+                results.add(service.submit(job.settings(), job.message()));
+            }
+            assertResults(jobs, results);
+            assertEquals(1, service.idleMachines());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        try (EnigmaService service =
+             new EnigmaService(navalConfiguration(), 2)) {
+            Future<String> badMessage = service.submit(SETTINGS[0], "AB1");
+            Future<String> badSettings =
+                service.submit("* B Beta III IV X AXLE", "HELLO");
+            Future<String> good = service.submit(SETTINGS[1], "HELLO");
+            for (Future<String> bad : List.of(badMessage, badSettings)) {
+                try {
+                    bad.get();
+                    fail("error not reported");
+                } catch (ExecutionException excp) {
+                    assertTrue(excp.getCause() instanceof EnigmaException);
+                }
+            }
+            assertEquals(expected(SETTINGS[1], "HELLO"), good.get());
+        }
+    }
+
+    @Test
+    public void testCloseOwnedExecutor() throws Exception {
+        EnigmaService service = new EnigmaService(navalConfiguration(), 2);
+        Future<String> result = service.submit(SETTINGS[2], "HELLO");
+        service.close();
+        assertEquals(expected(SETTINGS[2], "HELLO"), result.get());
+        try {
+            service.submit(SETTINGS[2], "HELLO");
+            fail("closed service accepted a job");
+        } catch (RejectedExecutionException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testCloseBorrowedExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new EnigmaService(navalConfiguration(), executor).close();
+            assertFalse(executor.isShutdown());
+            assertEquals("OK", executor.submit(() -> "OK").get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        List<EnigmaService.Job> jobs = jobs(50);
+        EnigmaService service =
+            EnigmaService.withVirtualThreads(navalConfiguration());
+        try {
+            assertResults(jobs, service.submitAll(jobs));
+            int machines = service.idleMachines();
+            assertTrue(machines >= 1 && machines <= jobs.size());
+            for (EnigmaService.Job job : jobs) {
+                service.submit(job.settings(), job.message()).get();
+            }
+            assertEquals(machines, service.idleMachines());
+        } finally {
+            service.close();
+        }
+        try {
+            service.submit(SETTINGS[0], "HELLO");
+            fail("closed service accepted a job");
+        } catch (RejectedExecutionException excp) {
+            /* Expected. */
+        }
+    }
+
+}
@@ -13,7 +13,25 @@ class FixedRotor extends Rotor {
         super(name, perm);
         _setting = 0;
         _setOnce = false;
-        _perm = perm;
+    }
+
+    /** A non-moving rotor with the name and wiring of ROTOR, at setting
+     *  0. */
+    FixedRotor(FixedRotor rotor) {
+        super(rotor);
+        _setting = 0;
+        _setOnce = false;
+    }
+
+    @Override
+    FixedRotor copy() {
+        return new FixedRotor(this);
+    }
+
+    @Override
+    void reset() {
+        _setting = 0;
+        _setOnce = false;
     }
 
     @Override
@@ -23,7 +41,7 @@ class FixedRotor extends Rotor {
 
     @Override
     void set(int posn) {
-        if (!alphabet().contains(alphabet().toChar(posn))) {
+        if (posn < 0 || posn >= size()) {
             throw new EnigmaException("Setting out of bounds");
         }
         if (!_setOnce) {
@@ -43,34 +61,9 @@ class FixedRotor extends Rotor {
         }
     }
 
-    @Override
-    int convertForward(int p) {
-        int contact = (p + this._setting) % size();
-        int contactExited = _perm.permute(contact);
-        int positionExited = (contactExited - this._setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
-        }
-        return positionExited;
-    }
-
-    @Override
-    int convertBackward(int e) {
-        int contact = (e + _setting) % size();
-        int contactExited = _perm.invert(contact);
-        int positionExited = (contactExited - _setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
-        }
-        return positionExited;
-    }
-
     /** setting. */
     private int _setting;
 
     /** set one boolean. */
     private boolean _setOnce;
-
-    /** permutation. */
-    private Permutation _perm;
 }
@@ -1,7 +1,20 @@
 package enigma;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static enigma.EnigmaException.*;
 
 /** Class that represents a complete enigma machine.
  *  @author Pauline Tang
@@ -18,10 +31,20 @@ class Machine {
         _pawls = pawls;
         _numMove = 0;
         _allRotors = new ArrayList<Rotor>();
+        _rotorIndex = new HashMap<String, Integer>();
         for (Rotor r : allRotors) {
+            _rotorIndex.put(r.name(), _allRotors.size());
             _allRotors.add(r);
         }
+        _insertedIn = new int[_allRotors.size()];
         _myRotors = new Rotor[_numRotors];
+        _needsAdv = new boolean[_numRotors];
+        _cursorPosns = new int[_numRotors];
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -35,25 +58,27 @@ class Machine {
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  available rotors (ROTORS[0] names the reflector), replacing any
+     *  inserted before.  Initially, all rotors are set at their 0
+     *  setting.  No rotor may be named twice, and no more rotors may
+     *  rotate than I have pawls. */
     void insertRotors(String[] rotors) {
+        clearFusedCache();
+        _insertions += 1;
+        _numMove = 0;
         for (int i = 0; i < _numRotors; i++) {
-            for (int k = 0; k < _allRotors.size(); k++) {
-                if (rotors[i].equals((_allRotors.get(k).name()))) {
-                    _myRotors[i] = _allRotors.get(k);
-                }
-            }
-        }
-
-        for (int i = 0; i < _myRotors.length; i++) {
-            if (_myRotors[i] == null) {
+            Integer k = _rotorIndex.get(rotors[i]);
+            if (k == null) {
                 throw new EnigmaException("bad rotor name");
             }
-        }
-
-        for (Rotor r : _myRotors) {
-            if (r instanceof MovingRotor) {
+            if (_insertedIn[k] == _insertions) {
+                throw new EnigmaException("duplicate rotors");
+            }
+            _insertedIn[k] = _insertions;
+            Rotor r = _allRotors.get(k);
+            r.reset();
+            _myRotors[i] = r;
+            if (r.rotates()) {
                 _numMove += 1;
             }
         }
@@ -65,6 +90,32 @@ class Machine {
         if (!_myRotors[_numRotors - 1].rotates()) {
             throw new EnigmaException("Right-most rotor is not rotating");
         }
+
+        if (_numMove > _pawls) {
+            throw new EnigmaException("incorrect args");
+        }
+
+        int bits = 64 - Long.numberOfLeadingZeros(_alphabet.size());
+        _slowPositions = bits * (_numRotors - 1) < Long.SIZE
+            ? 1 : Long.MAX_VALUE;
+        for (int i = 1; i < _numRotors - 1; i++) {
+            if (_myRotors[i].rotates() && _slowPositions <= Integer.MAX_VALUE) {
+                _slowPositions *= _alphabet.size();
+            }
+        }
+        if (_slowPositions > Integer.MAX_VALUE) {
+            _slowPositions = Long.MAX_VALUE;
+        }
+    }
+
+    /** Set me up as insertRotors(ROTORS), setRotors(SETTING), and
+     *  setPlugboard(plugboard(PLUGBOARD)) would, in place.  Besides any
+     *  plugboard not already cached, this allocates nothing, so one
+     *  machine may be reconfigured for every message it converts. */
+    void reconfigure(String[] rotors, String setting, String plugboard) {
+        insertRotors(rotors);
+        setRotors(setting);
+        setPlugboard(plugboard(plugboard));
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -82,16 +133,80 @@ class Machine {
         }
     }
 
+    /** Return the plugboard permutation of my alphabet given by CYCLES,
+     *  reusing the one built for an earlier identical CYCLES if I still
+     *  have it. */
+    Permutation plugboard(String cycles) {
+        Permutation plugboard = _plugboards.get(cycles);
+        if (plugboard == null) {
+            plugboard = new Permutation(cycles, _alphabet);
+            _plugboards.put(cycles, plugboard);
+        }
+        return plugboard;
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        if (plugboard != _plugboard) {
+            clearFusedCache();
+        }
         _plugboard = plugboard;
     }
 
+    /** Have convert(int) remember the whole-machine substitutions for up
+     *  to CAPACITY positions of my rotors other than the rightmost one,
+     *  discarding the least recently used beyond that.  Each takes
+     *  4 * size * size bytes of my alphabet's size.  Since the positions
+     *  recur in a cycle, an LRU cache smaller than the cycle would only
+     *  thrash, so the cache is used only while CAPACITY is at least
+     *  fusedTablesNeeded() for the rotors inserted.  If rotors are
+     *  inserted, a nonzero CAPACITY smaller than that is an error;
+     *  otherwise CAPACITY is a budget, and fusedCacheEnabled() tells
+     *  whether the rotors inserted later fit it.  A CAPACITY of 0 (the
+     *  default) turns the cache off. */
+    void setFusedCacheCapacity(int capacity) {
+        if (capacity < 0
+            || hasRotors() && capacity != 0 && capacity < _slowPositions) {
+            throw error("fused cache capacity %d is below the %s tables"
+                        + " these rotors need", capacity,
+                        _slowPositions == Long.MAX_VALUE
+                        ? "unbounded" : Long.toString(_slowPositions));
+        }
+        _fusedCapacity = capacity;
+        _fusedTables.clear();
+        clearFusedCache();
+    }
+
+    /** Return the capacity setFusedCacheCapacity needs to cache the
+     *  substitutions of the rotors now inserted, or Long.MAX_VALUE if
+     *  none would do (as when no rotors are inserted). */
+    long fusedTablesNeeded() {
+        return _slowPositions;
+    }
+
+    /** Return true iff convert(int) is using the fused cache with the
+     *  rotors now inserted. */
+    boolean fusedCacheEnabled() {
+        return _fusedCapacity >= _slowPositions;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        boolean[] needsAdv = new boolean[_numRotors];
+        int result = press(c);
+        if (Metrics.ENABLED) {
+            addCounts();
+        }
+        return result;
+    }
+
+    /** Return the result of converting C as for convert(int), but only
+     *  counting the keypress in my pending counts (see addCounts), so
+     *  that callers converting many characters add them to Metrics once
+     *  per batch. */
+    private int press(int c) {
+        boolean[] needsAdv = _needsAdv;
         needsAdv[_numRotors - 1] = true;
 
         for (int i = _numRotors - 2; i > 0; i--) {
@@ -99,12 +214,56 @@ class Machine {
                     || (_myRotors[i - 1].rotates() && _myRotors[i].atNotch()));
         }
 
+        if (Metrics.ENABLED) {
+            countSteps();
+        }
         for (int i = 1; i < _numRotors; i++) {
             if (needsAdv[i]) {
                 _myRotors[i].advance();
             }
         }
 
+        if (!fusedCacheEnabled()) {
+            return substitute(c);
+        }
+        int[] fused = fusedTable();
+        int k = _myRotors[_numRotors - 1].setting() * _alphabet.size() + c;
+        int result = fused[k] - 1;
+        if (result == -1) {
+            result = substitute(c);
+            fused[k] = result + 1;
+        }
+        return result;
+    }
+
+    /** Add the keypress about to be made by press, with the rotors in
+     *  _needsAdv about to advance, to my pending counts. */
+    private void countSteps() {
+        _pendingChars += 1;
+        for (int i = 1; i < _numRotors - 1; i++) {
+            if (_needsAdv[i] && _myRotors[i].rotates()) {
+                _pendingSteps += 1;
+                if (!_myRotors[i + 1].atNotch()) {
+                    _pendingDoubleSteps += 1;
+                }
+            }
+        }
+    }
+
+    /** Add my pending counts to Metrics, and clear them. */
+    private void addCounts() {
+        if (_pendingChars == 0) {
+            return;
+        }
+        Metrics.CHARACTERS.add(_pendingChars);
+        Metrics.ROTOR_STEPS.add(_pendingSteps);
+        Metrics.DOUBLE_STEPS.add(_pendingDoubleSteps);
+        _pendingChars = _pendingSteps = _pendingDoubleSteps = 0;
+    }
+
+    /** Return the result of passing C through my plugboard, rotors, and
+     *  reflector at their current settings. */
+    private int substitute(int c) {
         int result = c;
         if (_plugboard != null) {
             result = _plugboard.permute(c);
@@ -121,23 +280,389 @@ class Machine {
         return result;
     }
 
+    /** Return the cached substitutions for the current positions of my
+     *  rotors other than the rightmost, indexed by the rightmost rotor's
+     *  setting * alphabet size + input.  An entry holds one more than
+     *  the result of substitute, or 0 if not yet computed. */
+    private int[] fusedTable() {
+        long key = 0;
+        for (int i = 1; i < _numRotors - 1; i++) {
+            key = key * _alphabet.size() + _myRotors[i].setting();
+        }
+        if (_fused != null && key == _fusedKey) {
+            return _fused;
+        }
+        int[] table = _fusedTables.get(key);
+        if (table == null) {
+            int size = _alphabet.size() * _alphabet.size();
+            if (_spareTable != null) {
+                table = _spareTable;
+                _spareTable = null;
+                Arrays.fill(table, 0);
+            } else {
+                table = new int[size];
+            }
+            _fusedTables.put(key, table);
+        }
+        _fused = table;
+        _fusedKey = key;
+        return table;
+    }
+
+    /** Forget all cached substitutions, and the compiled form of my
+     *  rotors and plugboard used by convert(int[], int, int). */
+    private void clearFusedCache() {
+        _fusedTables.clear();
+        _fused = null;
+        _cursor = null;
+    }
+
+    /** Convert the character indices MSG[START .. END-1] in place,
+     *  updating the state of the rotors, with the same result as calling
+     *  convert(int) on each in turn.  Blocks of at least BATCH_MIN
+     *  characters are converted with a compiled copy of my rotors (see
+     *  CompiledMachine.Cursor.convert(int[], int, int)), which is kept
+     *  until my rotors or plugboard change. */
+    void convert(int[] msg, int start, int end) {
+        if (end - start < BATCH_MIN || fusedCacheEnabled()) {
+            for (int i = start; i < end; i++) {
+                msg[i] = press(msg[i]);
+            }
+            if (Metrics.ENABLED) {
+                addCounts();
+            }
+            return;
+        }
+        int[] posns = _cursorPosns;
+        for (int i = 0; i < _numRotors; i++) {
+            posns[i] = _myRotors[i].setting();
+        }
+        if (_cursor == null) {
+            _cursor = compile().newCursor().counting();
+        }
+        _cursor.moveTo(posns);
+        long steps = _cursor.steps(), doubleSteps = _cursor.doubleSteps();
+        _cursor.convert(msg, start, end);
+        _cursor.positions(posns);
+        setPositions(posns);
+        if (Metrics.ENABLED) {
+            Metrics.CHARACTERS.add(end - start);
+            Metrics.ROTOR_STEPS.add(_cursor.steps() - steps);
+            Metrics.DOUBLE_STEPS.add(_cursor.doubleSteps() - doubleSteps);
+        }
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String result = "";
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) == ' ') {
-                result += ' ';
-            } else {
-                char c = msg.charAt(i);
-                int ind = _alphabet.toInt(c);
-                int conv = convert(ind);
-                result += _alphabet.toChar(conv);
+        StringBuilder result = new StringBuilder(msg.length());
+        convert(msg, result);
+        return result.toString();
+    }
+
+    /** Append the encoding/decoding of MSG to OUT, updating the state of
+     *  the rotors accordingly.  As for convert(String), blanks are copied
+     *  through unchanged. */
+    void convert(CharSequence msg, Appendable out) {
+        try {
+            for (int i = 0; i < msg.length(); i++) {
+                out.append(convertChar(msg.charAt(i)));
+            }
+        } catch (IOException excp) {
+            throw error("could not write message: %s", excp.getMessage());
+        } finally {
+            if (Metrics.ENABLED) {
+                addCounts();
+            }
+        }
+    }
+
+    /** Convert the LEN characters of IN starting at IN[INOFF] into OUT
+     *  starting at OUT[OUTOFF], updating the state of the rotors.  IN and
+     *  OUT may be the same array. */
+    void convert(char[] in, int inOff, int len, char[] out, int outOff) {
+        try {
+            for (int i = 0; i < len; i++) {
+                out[outOff + i] = convertChar(in[inOff + i]);
+            }
+        } finally {
+            if (Metrics.ENABLED) {
+                addCounts();
+            }
+        }
+    }
+
+    /** Convert the remaining characters of IN into OUT, advancing the
+     *  positions of both buffers, until IN is exhausted or OUT is full. */
+    void convert(CharBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            int len = Math.min(in.remaining(), out.remaining());
+            convert(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+        } else {
+            try {
+                while (in.hasRemaining() && out.hasRemaining()) {
+                    out.put(convertChar(in.get()));
+                }
+            } finally {
+                if (Metrics.ENABLED) {
+                    addCounts();
+                }
+            }
+        }
+    }
+
+    /** Convert the LEN bytes of IN starting at IN[INOFF] into OUT
+     *  starting at OUT[OUTOFF], updating the state of the rotors, where
+     *  each byte encodes one character as in ASCII.  My alphabet must be
+     *  ASCII (see Alphabet.isAscii).  Blanks are copied through unchanged.
+     *  IN and OUT may be the same array. */
+    void convert(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (!_alphabet.isAscii()) {
+            throw error("alphabet is not ASCII");
+        }
+        int[] block = byteBlock();
+        int[] where = _byteWhere;
+        int i = 0;
+        while (i < len) {
+            int n;
+            for (n = 0; n < block.length && i < len; i++) {
+                byte b = in[inOff + i];
+                if (b == ' ') {
+                    out[outOff + i] = b;
+                    continue;
+                }
+                int ind = _alphabet.toInt(b);
+                if (ind == -1) {
+                    throw error("character '%c' not in alphabet",
+                                (char) (b & 0xff));
+                }
+                block[n] = ind;
+                where[n] = outOff + i;
+                n += 1;
+            }
+            convert(block, 0, n);
+            for (int k = 0; k < n; k++) {
+                out[where[k]] = _alphabet.toByte(block[k]);
+            }
+        }
+    }
+
+    /** Convert the remaining bytes of IN into OUT, as for
+     *  convert(byte[], int, int, byte[], int), advancing the positions of
+     *  both buffers, until IN is exhausted or OUT is full. */
+    void convert(ByteBuffer in, ByteBuffer out) {
+        int len = Math.min(in.remaining(), out.remaining());
+        if (in.hasArray() && out.hasArray()) {
+            convert(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+        } else {
+            byteBlock();
+            byte[] buf = _bytes;
+            while (len > 0) {
+                int n = Math.min(len, buf.length);
+                in.get(buf, 0, n);
+                convert(buf, 0, n, buf, 0);
+                out.put(buf, 0, n);
+                len -= n;
+            }
+        }
+    }
+
+    /** Return my scratch block of BYTE_BLOCK character indices for the
+     *  byte conversions, creating it and my other scratch arrays for
+     *  them on first use. */
+    private int[] byteBlock() {
+        if (_byteBlock == null) {
+            _byteBlock = new int[BYTE_BLOCK];
+            _byteWhere = new int[BYTE_BLOCK];
+            _bytes = new byte[BYTE_BLOCK];
+        }
+        return _byteBlock;
+    }
+
+    /** Return the encoding/decoding of the single character CH, which
+     *  must be in my alphabet or a blank, which is returned unchanged.
+     *  The keypress is only counted in my pending counts (see press). */
+    private char convertChar(char ch) {
+        if (ch == ' ') {
+            return ch;
+        }
+        int ind = _alphabet.toInt(ch);
+        if (ind == -1) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return _alphabet.toChar(press(ind));
+    }
+
+    /** Returns the encoding/decoding of MSG, as for convert(String),
+     *  computed by dividing MSG into chunks that are converted
+     *  concurrently in POOL, each starting from the rotor settings that
+     *  the preceding keypresses would produce.  Leaves my rotors as
+     *  convert(MSG) would. */
+    String convert(String msg, ForkJoinPool pool) {
+        char[] in = msg.toCharArray();
+        char[] out = new char[in.length];
+        int numChunks = (in.length + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[numChunks];
+        CompiledMachine.Cursor[] chunkCursors =
+            new CompiledMachine.Cursor[numChunks];
+        CompiledMachine.Cursor cursor = compile().newCursor();
+        long keys = 0;
+        for (int k = 0; k < numChunks; k++) {
+            int start = k * PARALLEL_CHUNK;
+            int end = Math.min(in.length, start + PARALLEL_CHUNK);
+            CompiledMachine.Cursor chunkCursor = cursor.copy().counting();
+            chunkCursors[k] = chunkCursor;
+            tasks[k] = pool.submit(() -> {
+                chunkCursor.convert(in, start, end, out);
+            });
+            long chunkKeys = 0;
+            for (int i = start; i < end; i++) {
+                if (in[i] != ' ') {
+                    chunkKeys += 1;
+                }
             }
+            cursor.skip(chunkKeys);
+            keys += chunkKeys;
         }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        setPositions(cursor.positions());
+        if (Metrics.ENABLED) {
+            Metrics.CHARACTERS.add(keys);
+            for (CompiledMachine.Cursor chunkCursor : chunkCursors) {
+                Metrics.ROTOR_STEPS.add(chunkCursor.steps());
+                Metrics.DOUBLE_STEPS.add(chunkCursor.doubleSteps());
+            }
+        }
+        return new String(out);
+    }
+
+    /** Return an immutable snapshot of my rotors, their current settings,
+     *  and my plugboard, which may be shared among threads. */
+    CompiledMachine compile() {
+        int[] posns = new int[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            posns[i] = _myRotors[i].setting();
+        }
+        return new CompiledMachine(_alphabet, _myRotors, posns, _plugboard);
+    }
+
+    /** Return a new machine with my alphabet, slots, pawls, inserted
+     *  rotors, rotor settings, plugboard, and fused-cache capacity (see
+     *  setFusedCacheCapacity), whose rotors are fresh copies of mine
+     *  sharing their wiring.  Neither it nor I affect the other
+     *  afterwards, so each may be used by a different thread. */
+    Machine copy() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : _allRotors) {
+            rotors.add(r.copy());
+        }
+        Machine result = new Machine(_alphabet, _numRotors, _pawls, rotors);
+        if (hasRotors()) {
+            String[] names = new String[_numRotors];
+            for (int i = 0; i < _numRotors; i++) {
+                names[i] = _myRotors[i].name();
+            }
+            result.insertRotors(names);
+        }
+        for (int k = 0; k < rotors.size(); k++) {
+            rotors.get(k).set(_allRotors.get(k).setting());
+        }
+        result.setPlugboard(_plugboard);
+        result._fusedCapacity = _fusedCapacity;
         return result;
     }
 
+    /** Return a new incremental session converting as I would from my
+     *  current settings.  Neither it nor I affect the other afterwards. */
+    Session newSession() {
+        return new Session(compile());
+    }
+
+    /** Return the settings of my rotors, indexed by slot, that they would
+     *  have after N further keypresses.  My rotors are not changed. */
+    int[] stateAt(long n) {
+        int[] posns = new int[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            posns[i] = _myRotors[i].setting();
+        }
+        advance(posns, n);
+        return posns;
+    }
+
+    /** Advance my rotors as N calls to convert(int) would. */
+    void skip(long n) {
+        setPositions(stateAt(n));
+    }
+
+    /** Set my rotating rotors to the settings in POSNS, indexed by slot. */
+    private void setPositions(int[] posns) {
+        for (int i = 1; i < _numRotors; i++) {
+            if (_myRotors[i].rotates()) {
+                _myRotors[i].set(posns[i]);
+            }
+        }
+    }
+
+    /** Advance POSNS, settings of my rotors indexed by slot, by N
+     *  keypresses, as CompiledMachine.Cursor.skip does, but with only
+     *  the rotors' notches, so that nothing need be compiled. */
+    private void advance(int[] posns, long n) {
+        int fast = _numRotors - 1;
+        int size = _alphabet.size();
+        while (n > 0) {
+            boolean others = false;
+            for (int i = fast - 1; i > 0 && !others; i--) {
+                others = needsAdvance(i, posns);
+            }
+            long run = others ? 0
+                : Math.min(n, _myRotors[fast].stepsToNotch(posns[fast]));
+            if (run > 0) {
+                posns[fast] = (int) ((posns[fast] + run) % size);
+                n -= run;
+            } else {
+                for (int i = 1; i < fast; i++) {
+                    if (needsAdvance(i, posns) && _myRotors[i].rotates()) {
+                        posns[i] = posns[i] + 1 == size ? 0 : posns[i] + 1;
+                    }
+                }
+                posns[fast] = posns[fast] + 1 == size ? 0 : posns[fast] + 1;
+                n -= 1;
+            }
+        }
+    }
+
+    /** Return true iff the rotor in slot I, 0 < I < numRotors() - 1, is
+     *  pushed forward on the next keypress when my rotors have settings
+     *  POSNS. */
+    private boolean needsAdvance(int i, int[] posns) {
+        return _myRotors[i + 1].stepsToNotch(posns[i + 1]) == 0
+            || (_myRotors[i - 1].rotates()
+                && _myRotors[i].stepsToNotch(posns[i]) == 0);
+    }
+
+    /** Return true iff rotors have been inserted in my slots. */
+    boolean hasRotors() {
+        return _myRotors[_numRotors - 1] != null;
+    }
+
+    /** Return my available rotors, which must not be changed. */
+    List<Rotor> availableRotors() {
+        return Collections.unmodifiableList(_allRotors);
+    }
+
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /** my rotors.
      * @return _myRotors */
     Rotor[] myRotors() {
@@ -150,6 +675,18 @@ class Machine {
         return _numMove;
     }
 
+    /** Number of characters converted at a time by the byte
+     *  conversions. */
+    static final int BYTE_BLOCK = 1 << 12;
+
+    /** Smallest number of characters that convert(int[], int, int)
+     *  converts as a batch. */
+    static final int BATCH_MIN = 64;
+
+    /** Number of characters converted by each task of
+     *  convert(String, ForkJoinPool). */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -159,6 +696,84 @@ class Machine {
     /** Data structure of all the rotors in the Collection. */
     private ArrayList<Rotor> _allRotors;
 
+    /** Index of each of my available rotors in _allRotors, by name. */
+    private HashMap<String, Integer> _rotorIndex;
+
+    /** Number of calls to insertRotors so far. */
+    private int _insertions;
+
+    /** For each available rotor, the value of _insertions when it was
+     *  last inserted in a slot. */
+    private final int[] _insertedIn;
+
+    /** Number of plugboards remembered by plugboard(String). */
+    static final int PLUGBOARD_CACHE_SIZE = 64;
+
+    /** Recently built plugboards, by the cycles that gave them, in order
+     *  of use. */
+    private final LinkedHashMap<String, Permutation> _plugboards =
+        new LinkedHashMap<String, Permutation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Permutation> eldest) {
+                return size() > PLUGBOARD_CACHE_SIZE;
+            }
+        };
+
+    /** Maximum number of tables in _fusedTables; 0 if not caching. */
+    private int _fusedCapacity;
+
+    /** Number of distinct positions of my inserted rotors other than the
+     *  rightmost, or Long.MAX_VALUE if no rotors are inserted, if there
+     *  are more than Integer.MAX_VALUE, or if they are too many to key
+     *  by a long. */
+    private long _slowPositions = Long.MAX_VALUE;
+
+    /** Substitution tables (see fusedTable) for recently seen positions
+     *  of all but my rightmost rotor, keyed by those positions, in order
+     *  of use. */
+    private final LinkedHashMap<Long, int[]> _fusedTables =
+        new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Long, int[]> eldest) {
+                if (size() > _fusedCapacity) {
+                    _spareTable = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    /** The table in _fusedTables for the current rotor positions, if not
+     *  null, and its key. */
+    private int[] _fused;
+
+    /** Key of _fused. */
+    private long _fusedKey;
+
+    /** The most recently evicted table, reused for the next new one. */
+    private int[] _spareTable;
+
+    /** Cursor on a compiled copy of my rotors and plugboard, for
+     *  convert(int[], int, int), or null if not yet compiled. */
+    private CompiledMachine.Cursor _cursor;
+
+    /** Scratch rotor settings, indexed by slot, passed to and from
+     *  _cursor by convert(int[], int, int). */
+    private final int[] _cursorPosns;
+
+    /** Scratch block of character indices for the byte conversions, or
+     *  null until first needed. */
+    private int[] _byteBlock;
+
+    /** Where in its byte[] each character of _byteBlock goes. */
+    private int[] _byteWhere;
+
+    /** Scratch bytes for convert(ByteBuffer, ByteBuffer) on buffers
+     *  without accessible arrays. */
+    private byte[] _bytes;
+
     /** Data structure of all my rotors in the Machine. */
     private Rotor[] _myRotors;
 
@@ -167,4 +782,12 @@ class Machine {
 
     /** Number of Moving Rotors. */
     private int _numMove;
+
+    /** Scratch flags marking which rotors advance on the current
+     *  keypress, reused by every call to press. */
+    private final boolean[] _needsAdv;
+
+    /** Characters, rotor steps, and double steps counted by press but
+     *  not yet added to Metrics (see addCounts). */
+    private long _pendingChars, _pendingSteps, _pendingDoubleSteps;
 }
@@ -0,0 +1,315 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Pauline Tang
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the current settings of the rotors of M, indexed by slot. */
+    private int[] settings(Machine m) {
+        int[] result = new int[m.numRotors()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = m.myRotors()[i].setting();
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testConvert() {
+        Machine m = navalMachine("AXLE", "(HQ) (EX) (IP) (TR) (BY)");
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     m.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void testDoubleStep() {
+        Machine m = navalMachine("AAIP", "");
+        m.convert("AAA");
+        assertArrayEquals(new int[] {0, 0, 1, 10, 18}, settings(m));
+    }
+
+    @Test
+    public void testConvertArray() {
+        String msg = randomMessage(1000);
+        Machine m = navalMachine("AXLE", "(HQ) (EX)");
+        char[] out = new char[msg.length()];
+        m.convert(msg.toCharArray(), 0, msg.length(), out, 0);
+        assertEquals(navalMachine("AXLE", "(HQ) (EX)").convert(msg),
+                     new String(out));
+    }
+
+    @Test
+    public void testSkip() {
+        for (int n : new int[] {0, 1, 17, 26, 650, 16900, 100003}) {
+            Machine stepped = navalMachine("ZUIP", "");
+            for (int i = 0; i < n; i++) {
+                stepped.convert(0);
+            }
+            Machine skipped = navalMachine("ZUIP", "");
+            assertArrayEquals(settings(stepped), skipped.stateAt(n));
+            assertArrayEquals(settings(navalMachine("ZUIP", "")),
+                              settings(skipped));
+            skipped.skip(n);
+            assertArrayEquals(settings(stepped), settings(skipped));
+        }
+    }
+
+    @Test
+    public void testConvertBatch() {
+        for (int n : new int[] {1, Machine.BATCH_MIN,
+                                3 * CompiledMachine.BATCH + 7}) {
+            Machine single = navalMachine("AXLE", "(HQ) (EX) (IP)");
+            Machine batch = navalMachine("AXLE", "(HQ) (EX) (IP)");
+            int[] msg = new int[n];
+            for (int i = 0; i < n; i++) {
+                msg[i] = (i * 7) % 26;
+            }
+            int[] expected = new int[n];
+            for (int i = 0; i < n; i++) {
+                expected[i] = single.convert(msg[i]);
+            }
+            batch.convert(msg, 0, n);
+            assertArrayEquals(expected, msg);
+            assertArrayEquals(settings(single), settings(batch));
+        }
+    }
+
+    @Test
+    public void testFusedCache() {
+        String msg = randomMessage(20000);
+        for (int capacity : new int[] {26 * 26, 1 << 12}) {
+            Machine cached = navalMachine("AXLE", "(HQ) (EX) (IP)");
+            Machine plain = navalMachine("AXLE", "(HQ) (EX) (IP)");
+            assertEquals(26 * 26, cached.fusedTablesNeeded());
+            cached.setFusedCacheCapacity(capacity);
+            assertTrue(cached.fusedCacheEnabled());
+            for (String setting : new String[] {"AXLE", "QXLE", "QAIP"}) {
+                cached.setRotors(setting);
+                plain.setRotors(setting);
+                assertEquals(msg(setting, "capacity %d", capacity),
+                             plain.convert(msg), cached.convert(msg));
+                assertArrayEquals(settings(plain), settings(cached));
+            }
+            Machine copy = cached.copy();
+            assertTrue(copy.fusedCacheEnabled());
+            assertEquals(plain.convert(msg), copy.convert(msg));
+        }
+    }
+
+    @Test
+    public void testFusedCacheFull() {
+        String msg = randomMessage(2000);
+        String[] rotors = {"B", "Beta", "II", "III"};
+        /* The cache is on only while it can hold a table for every
+         * position of the moving rotors other than the rightmost, so the
+         * smallest capacity it runs with is 26 here, which every message
+         * fills. */
+        Machine cached = smallConfiguration().newMachine();
+        Machine plain = smallConfiguration().newMachine();
+        cached.reconfigure(rotors, "AEU", "(AB) (CD)");
+        plain.reconfigure(rotors, "AEU", "(AB) (CD)");
+        cached.setFusedCacheCapacity(26);
+        for (String setting : new String[] {"AEU", "ADV", "AZZ"}) {
+            cached.setRotors(setting);
+            plain.setRotors(setting);
+            assertEquals(msg(setting, "capacity 26"),
+                         plain.convert(msg), cached.convert(msg));
+            assertArrayEquals(settings(plain), settings(cached));
+        }
+    }
+
+    @Test
+    public void testFusedCacheTooSmall() {
+        Machine m = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        for (int capacity : new int[] {26 * 26 - 1, 1, -1}) {
+            try {
+                m.setFusedCacheCapacity(capacity);
+                fail(msg("setFusedCacheCapacity", "%d", capacity));
+            } catch (EnigmaException excp) {
+                assertFalse(m.fusedCacheEnabled());
+            }
+        }
+        m.setFusedCacheCapacity(0);
+        assertFalse(m.fusedCacheEnabled());
+        /* Before rotors are inserted, the capacity is a budget that the
+         * rotors inserted later may or may not fit. */
+        String[] rotors = {"B", "Beta", "III", "IV", "I"};
+        for (int capacity : new int[] {26, 26 * 26}) {
+            Machine budget = navalConfiguration().newMachine();
+            assertEquals(Long.MAX_VALUE, budget.fusedTablesNeeded());
+            budget.setFusedCacheCapacity(capacity);
+            assertFalse(budget.fusedCacheEnabled());
+            budget.reconfigure(rotors, "AXLE", "");
+            assertEquals(capacity == 26 * 26, budget.fusedCacheEnabled());
+        }
+    }
+
+    @Test
+    public void testConvertCharsAtOffsets() {
+        String msg = randomMessage(300);
+        String expected = navalMachine("AXLE", "(HQ) (EX)").convert(msg);
+        Machine m = navalMachine("AXLE", "(HQ) (EX)");
+        char[] in = ("xyz" + msg).toCharArray();
+        char[] out = new char[msg.length() + 5];
+        m.convert(in, 3, 100, out, 5);
+        m.convert(in, 103, msg.length() - 100, out, 105);
+        assertEquals(expected, new String(out, 5, msg.length()));
+
+        m = navalMachine("AXLE", "(HQ) (EX)");
+        char[] buf = ("ab" + msg).toCharArray();
+        m.convert(buf, 2, msg.length(), buf, 2);
+        assertEquals(expected, new String(buf, 2, msg.length()));
+    }
+
+    @Test
+    public void testConvertCharBuffers() {
+        String msg = randomMessage(300);
+        String expected = navalMachine("AXLE", "(HQ) (EX)").convert(msg);
+
+        Machine m = navalMachine("AXLE", "(HQ) (EX)");
+        CharBuffer in = CharBuffer.wrap(("xyz" + msg).toCharArray());
+        in.position(3);
+        CharBuffer out = CharBuffer.allocate(msg.length() + 10);
+        out.position(4);
+        CharBuffer slice = out.slice();
+        slice.limit(100);
+        m.convert(in, slice);
+        assertEquals(103, in.position());
+        assertEquals(100, slice.position());
+        out.position(104);
+        m.convert(in, out);
+        assertFalse(in.hasRemaining());
+        out.flip().position(4);
+        assertEquals(expected, out.toString());
+
+        m = navalMachine("AXLE", "(HQ) (EX)");
+        CharBuffer readOnly = CharBuffer.wrap(msg);
+        CharBuffer direct =
+            ByteBuffer.allocateDirect(2 * msg.length()).asCharBuffer();
+        assertFalse(readOnly.hasArray() || direct.hasArray());
+        m.convert(readOnly, direct);
+        direct.flip();
+        assertEquals(expected, direct.toString());
+    }
+
+    @Test
+    public void testConvertAppendable() {
+        String msg = randomMessage(300);
+        String expected = navalMachine("AXLE", "(HQ) (EX)").convert(msg);
+        Machine m = navalMachine("AXLE", "(HQ) (EX)");
+        StringBuilder out = new StringBuilder(">");
+        m.convert(msg.substring(0, 150), out);
+        m.convert(new StringBuilder(msg.substring(150)), out);
+        assertEquals(">" + expected, out.toString());
+
+        m = navalMachine("AXLE", "(HQ) (EX)");
+        StringWriter writer = new StringWriter();
+        m.convert(CharBuffer.wrap(msg), writer);
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testConvertBytes() {
+        String msg = randomMessage(3 * Machine.BYTE_BLOCK + 11);
+        Machine chars = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        Machine bytes = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        byte[] in = msg.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[in.length];
+        bytes.convert(in, 0, in.length, out, 0);
+        assertEquals(chars.convert(msg),
+                     new String(out, StandardCharsets.US_ASCII));
+        assertArrayEquals(settings(chars), settings(bytes));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(in.length);
+        buf.put(in).flip();
+        bytes.convert(buf.duplicate(), buf);
+        buf.flip();
+        byte[] again = new byte[in.length];
+        buf.get(again);
+        assertEquals(chars.convert(msg),
+                     new String(again, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testParallelConvert() {
+        String msg = randomMessage(5 * Machine.PARALLEL_CHUNK + 123);
+        Machine serial = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        Machine parallel = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(serial.convert(msg), parallel.convert(msg, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(settings(serial), settings(parallel));
+    }
+
+    @Test
+    public void testCompiledCursors() {
+        String msg = randomMessage(2000);
+        Machine m = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        CompiledMachine compiled = m.compile();
+        CompiledMachine.Cursor first = compiled.newCursor();
+        CompiledMachine.Cursor second = compiled.newCursor();
+        String expected = navalMachine("AXLE", "(HQ) (EX) (IP)").convert(msg);
+        assertEquals(expected, first.convert(msg));
+        assertEquals(expected, second.convert(msg));
+        assertArrayEquals(settings(navalMachine("AXLE", "")), settings(m));
+        assertArrayEquals(first.positions(), m.stateAt(msg.replace(" ", "")
+                                                       .length()));
+    }
+
+    @Test
+    public void testCopy() {
+        String msg = randomMessage(500);
+        Machine m = navalMachine("AXLE", "(HQ) (EX) (IP)");
+        m.convert(msg);
+        Machine copy = m.copy();
+        assertArrayEquals(settings(m), settings(copy));
+        assertEquals(m.convert(msg), copy.convert(msg));
+        int[] before = settings(m);
+        copy.setRotors("ZZZZ");
+        assertArrayEquals(before, settings(m));
+    }
+
+    @Test
+    public void testReconfigure() {
+        Machine m = navalMachine("AXLE", "(HQ) (EX)");
+        String[] rotors = {"B", "Beta", "III", "IV", "I"};
+        for (int i = 0; i < 100; i++) {
+            m.reconfigure(rotors, "BXLE", "(HQ) (EX)");
+            assertEquals(3, m.numMove());
+        }
+        assertEquals(1, m.myRotors()[1].setting());
+        assertEquals(navalMachine("BXLE", "(HQ) (EX)").convert("HELLO"),
+                     m.convert("HELLO"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicateRotors() {
+        Machine m = navalMachine("AXLE", "");
+        m.insertRotors(new String[] {"B", "Beta", "III", "I", "I"});
+    }
+
+}
@@ -1,12 +1,47 @@
 package enigma;
 
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
 
@@ -23,8 +58,52 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  ARGS may begin with options:
+     *    --mmap: the remaining three arguments name the configuration,
+     *        input, and output files, and the input file is memory-mapped
+     *        rather than read.  Input and output files are then taken to
+     *        hold one byte (ISO-8859-1) per character.  With an ASCII
+     *        alphabet, messages are converted straight out of the mapped
+     *        file into a direct buffer written to the output file, with
+     *        no copy through the heap; otherwise the files are streamed
+     *        as usual.
+     *    --config-cache=DIR: keep the compiled form of each
+     *        configuration file read in directory DIR, keyed by a hash
+     *        of the file's contents, and use it instead of parsing the
+     *        file again.
+     *    --save=FILE: after processing, write the machine, including its
+     *        rotor settings, to FILE in binary form (see BinaryFormat).
+     *    --threads=N: encrypt the messages following different settings
+     *        lines concurrently in N threads, each with its own machine.
+     *        Output is the same as without this option.
+     *    --serve=ADDRESS: rather than converting one input, listen on
+     *        ADDRESS, which is either a port number on the loopback
+     *        interface or the path of a Unix-domain socket, and treat
+     *        what each client sends as an input, sending back the
+     *        output.  The configuration is read once, at startup; each
+     *        connection is served in its own thread (a virtual thread
+     *        where the runtime has them) by its own copy of the machine.
+     *        The configuration file is checked for changes every
+     *        RELOAD_INTERVAL milliseconds, and connections made after it
+     *        changes use the new configuration, while those already open
+     *        keep the one they started with.  (A saved machine with its
+     *        rotors inserted is served as saved, and not reloaded.)
+     *        Output is flushed whenever the server waits for input, and
+     *        an error is sent to the client as "Error: ..." before the
+     *        connection is closed.  Only --config-cache and --metrics may
+     *        accompany this option, and ARGS must then name just the
+     *        configuration.
+     *    --metrics=SECONDS: keep metrics (see Metrics), publish them over
+     *        JMX, print them to the standard error every SECONDS seconds,
+     *        and print them once more when done.
+     *
+     *  The configuration file may be in binary form, holding either a
+     *  configuration or a whole machine.  If the machine has its rotors
+     *  inserted, the input need not begin with a settings line. */
     public static void main(String... args) {
+        enableMetrics(args);
         try {
             new Main(args).process();
             return;
@@ -34,29 +113,129 @@ public final class Main {
         System.exit(1);
     }
 
-    /** Check ARGS and open the necessary files (see comment on main). */
+    /** Turn metrics on if the options that begin ARGS include --metrics.
+     *  Metrics.ENABLED is fixed when Metrics is first used, so this must
+     *  run before anything else does. */
+    private static void enableMetrics(String[] args) {
+        for (int k = 0; k < args.length && args[k].startsWith("--"); k++) {
+            if (args[k].startsWith(METRICS_OPTION)) {
+                System.setProperty("enigma.metrics", "true");
+            }
+        }
+    }
+
+    /** Check ARGS and open the necessary files (see comment on main).
+     *  With --metrics, metrics must already be on, as main or the
+     *  property enigma.metrics turns them on. */
     Main(String[] args) {
+        boolean mapped = false;
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k++) {
+            if (args[k].equals("--mmap")) {
+                mapped = true;
+            } else if (args[k].startsWith(SAVE_OPTION)) {
+                _saveName = args[k].substring(SAVE_OPTION.length());
+            } else if (args[k].startsWith(THREADS_OPTION)) {
+                _threads = parseCount(
+                    args[k].substring(THREADS_OPTION.length()),
+                    "number of threads");
+            } else if (args[k].startsWith(METRICS_OPTION)) {
+                _metricsInterval = parseCount(
+                    args[k].substring(METRICS_OPTION.length()),
+                    "metrics interval");
+                if (!Metrics.ENABLED) {
+                    throw error("--metrics needs metrics on from startup"
+                                + " (-Denigma.metrics=true)");
+                }
+            } else if (args[k].startsWith(SERVE_OPTION)) {
+                _serveAddress = args[k].substring(SERVE_OPTION.length());
+            } else if (args[k].startsWith(CONFIG_CACHE_OPTION)) {
+                _configCache = new ConfigCache(1, new File(
+                    args[k].substring(CONFIG_CACHE_OPTION.length())));
+            } else {
+                throw error("unknown option %s", args[k]);
+            }
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
+
+        if (_serveAddress != null) {
+            if (mapped || _saveName != null || _threads != 1
+                || args.length != 1) {
+                throw error("--serve requires just a configuration file");
+            }
+            if (socketPath(_serveAddress) == null) {
+                parsePort(_serveAddress);
+            }
+            _configName = args[0];
+            _charset = Charset.defaultCharset();
+            return;
+        }
+        if (mapped) {
+            if (args.length != 3) {
+                throw error("--mmap requires configuration, input, and "
+                            + "output files");
+            }
+            _configName = args[0];
+            _inChannel = getChannel(args[1], StandardOpenOption.READ);
+            _outChannel = getChannel(args[2], StandardOpenOption.WRITE,
+                                     StandardOpenOption.CREATE,
+                                     StandardOpenOption.TRUNCATE_EXISTING);
+            _inStream = Channels.newInputStream(_inChannel);
+            _outStream = Channels.newOutputStream(_outChannel);
+            _charset = StandardCharsets.ISO_8859_1;
+            return;
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _inStream = getInput(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _inStream = System.in;
         }
 
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            _outStream = getOutput(args[2]);
+        } else {
+            _outStream = System.out;
+        }
+        _charset = Charset.defaultCharset();
+    }
+
+    /** A worker for PARENT, which converts Tasks read by PARENT, sharing
+     *  its alphabet and character handling. */
+    private Main(Main parent) {
+        _alphabet = parent._alphabet;
+        _charset = parent._charset;
+        _bytes = parent._bytes;
+        _inStream = InputStream.nullInputStream();
+        _input = Reader.nullReader();
+        if (_bytes) {
+            _outBytes = ByteBuffer.allocate(BUFFER_SIZE);
         } else {
-            _output = System.out;
+            _outBuf = new char[BUFFER_SIZE];
         }
     }
 
+    /** Return the positive number given by the text NUM of an option,
+     *  which gives the quantity WHAT. */
+    private static int parseCount(String num, String what) {
+        try {
+            int threads = Integer.parseInt(num);
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("invalid %s: %s", what, num);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    private Scanner getConfig(String name) {
         try {
             return new Scanner(new File(name));
         } catch (IOException excp) {
@@ -64,10 +243,29 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a stream reading from the file named NAME. */
+    private InputStream getInput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new FileInputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a stream writing to the file named NAME. */
+    private OutputStream getOutput(String name) {
+        try {
+            return new FileOutputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel on the file named NAME, opened with OPTIONS. */
+    private FileChannel getChannel(String name,
+                                   StandardOpenOption... options) {
+        try {
+            return FileChannel.open(Paths.get(name), options);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,156 +273,1025 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to _output.  Input is consumed a buffer at a time; only
+     *  settings lines are ever materialized as Strings. */
+    void process() {
+        if (_metricsInterval > 0) {
+            Metrics.reportEvery(_metricsInterval);
+        }
         Machine m = readConfig();
-        String line = _input.nextLine();
-        if (!line.contains("*")) {
-            throw new EnigmaException("No settings inputted");
-        }
-        while (_input.hasNextLine()) {
-            setUp(m, line);
-            line = _input.nextLine();
-            while (!line.startsWith("*")) {
-                String mes = m.convert(line.replaceAll("\\s", ""));
-                printMessageLine(mes);
-                _output.println();
-                if (_input.hasNextLine()) {
-                    line = _input.nextLine();
-                } else {
+        if (_serveAddress != null) {
+            serve(m);
+            return;
+        }
+        openStreams();
+        int size = _alphabet.size();
+        m.setFusedCacheCapacity(FUSED_CACHE_BYTES
+                                / (Integer.BYTES * size * size));
+        try {
+            String settings = readFirstSettings(m);
+            if (_threads > 1) {
+                processConcurrently(m, settings);
+            } else {
+                processSerially(m, settings);
+            }
+        } finally {
+            flush();
+        }
+        if (_saveName != null) {
+            BinaryFormat.write(Paths.get(_saveName), BinaryFormat.encode(m));
+        }
+        if (_metricsInterval > 0) {
+            System.err.print(Metrics.report());
+        }
+    }
+
+    /** Read and return the settings line at the start of the input, or
+     *  return null if there is none and M already has its rotors
+     *  inserted. */
+    private String readFirstSettings(Machine m) {
+        String settings = null;
+        if (!m.hasRotors() || peek() == '*') {
+            settings = readLine();
+            if (settings == null || !settings.contains("*")) {
+                throw new EnigmaException("No settings inputted");
+            }
+        }
+        return settings;
+    }
+
+    /** Accept connections on _serveAddress for ever, serving each with a
+     *  copy of M (see comment on main).  M itself is never changed.  A
+     *  Unix-domain socket file is deleted when the server exits, whether
+     *  by an error or at the termination of the JVM. */
+    private void serve(Machine m) {
+        Supplier<Machine> machines;
+        if (m.hasRotors()) {
+            machines = m::copy;
+        } else {
+            ConfigRegistry registry = new ConfigRegistry(
+                new Configuration(m.alphabet(), m.numRotors(), m.numPawls(),
+                                  m.availableRotors()));
+            Path path = Paths.get(_configName);
+            FileTime loaded = lastModified(path);
+            Thread reloader =
+                new Thread(() -> reload(registry, path, loaded),
+                           "config-reloader");
+            reloader.setDaemon(true);
+            reloader.start();
+            machines = registry::newMachine;
+        }
+        ExecutorService pool = EnigmaService.newThreadPerTaskExecutor();
+        Path socket = socketPath(_serveAddress);
+        Thread unlink = new Thread(() -> deleteSocket(socket),
+                                   "socket-unlink");
+        try (ServerSocketChannel server = listen(_serveAddress)) {
+            if (socket != null) {
+                Runtime.getRuntime().addShutdownHook(unlink);
+            }
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.execute(
+                    () -> new Main(this).converse(machines.get(), client));
+            }
+        } catch (IOException excp) {
+            throw error("could not serve on %s: %s", _serveAddress,
+                        excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            if (Runtime.getRuntime().removeShutdownHook(unlink)) {
+                deleteSocket(socket);
+            }
+        }
+    }
+
+    /** Check the configuration file at PATH, last modified at LOADED
+     *  (null if unknown), every RELOAD_INTERVAL milliseconds for ever,
+     *  and replace the snapshot in REGISTRY whenever it changes.  A file
+     *  that does not load is reported on the standard error, and the
+     *  current snapshot kept. */
+    private void reload(ConfigRegistry registry, Path path,
+                        FileTime loaded) {
+        while (true) {
+            try {
+                Thread.sleep(RELOAD_INTERVAL);
+            } catch (InterruptedException excp) {
+                return;
+            }
+            FileTime modified = lastModified(path);
+            if (modified == null || modified.equals(loaded)) {
+                continue;
+            }
+            loaded = modified;
+            try {
+                registry.replace(readConfiguration());
+            } catch (EnigmaException excp) {
+                System.err.printf("Error: %s; keeping the previous "
+                                  + "configuration%n", excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the time at which the file at PATH was last modified, or
+     *  null if it cannot be found. */
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return a server channel listening on ADDRESS, a port number on the
+     *  loopback interface or the path of a Unix-domain socket.  A socket
+     *  file at that path on which no server is listening is left over
+     *  from a server that did not exit cleanly, and is replaced. */
+    private static ServerSocketChannel listen(String address)
+        throws IOException {
+        SocketAddress local;
+        ServerSocketChannel server;
+        Path socket = socketPath(address);
+        if (socket == null) {
+            local = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                          parsePort(address));
+            server = ServerSocketChannel.open();
+        } else {
+            local = UnixDomainSocketAddress.of(socket);
+            if (isStaleSocket(socket)) {
+                deleteSocket(socket);
+            }
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        try {
+            server.bind(local);
+        } catch (IOException excp) {
+            server.close();
+            throw excp;
+        }
+        return server;
+    }
+
+    /** Return the path of the Unix-domain socket named by the --serve
+     *  address ADDRESS, or null if ADDRESS is a port number. */
+    private static Path socketPath(String address) {
+        return address.matches("\\d+") ? null : Paths.get(address);
+    }
+
+    /** Return the port number given by the --serve address ADDRESS, a
+     *  string of digits. */
+    private static int parsePort(String address) {
+        try {
+            int port = Integer.parseInt(address);
+            if (port <= MAX_PORT) {
+                return port;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad port: %s", address);
+    }
+
+    /** Return true iff SOCKET is a socket file on which no server is
+     *  listening. */
+    private static boolean isStaleSocket(Path socket) {
+        try {
+            if (!Files.readAttributes(socket, BasicFileAttributes.class,
+                                      LinkOption.NOFOLLOW_LINKS).isOther()) {
+                return false;
+            }
+        } catch (IOException excp) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return false;
+        } catch (IOException excp) {
+            return true;
+        }
+    }
+
+    /** Delete the socket file SOCKET, if SOCKET is not null and the file
+     *  exists, ignoring any failure. */
+    private static void deleteSocket(Path socket) {
+        if (socket != null) {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException excp) {
+                /* Nothing more can be done. */
+            }
+        }
+    }
+
+    /** Serve the connection CLIENT with M, as process() would serve an
+     *  input file, but flushing output whenever waiting for input.  Any
+     *  error is sent to CLIENT, and CLIENT is closed. */
+    private void converse(Machine m, SocketChannel client) {
+        _alphabet = m.alphabet();
+        _inStream = Channels.newInputStream(client);
+        _outStream = Channels.newOutputStream(client);
+        _interactive = true;
+        try (client) {
+            openStreams();
+            try {
+                processSerially(m, readFirstSettings(m));
+            } catch (EnigmaException excp) {
+                String report = String.format("Error: %s%s",
+                                              excp.getMessage(),
+                                              LINE_SEPARATOR);
+                for (int i = 0; i < report.length(); i++) {
+                    write(report.charAt(i));
+                }
+            } finally {
+                flush();
+            }
+        } catch (IOException | EnigmaException excp) {
+            /* The client has gone; there is no one left to tell. */
+        }
+    }
+
+    /** Process the rest of the input, as for process(), with M, starting
+     *  with the settings line SETTINGS (null if M is to be used as is
+     *  until the first settings line). */
+    private void processSerially(Machine m, String settings) {
+        while (peek() != -1) {
+            if (settings != null) {
+                setUp(m, settings);
+                settings = null;
+            }
+            if (peek() == '*') {
+                settings = readLine();
+            } else {
+                convertLine(m);
+            }
+        }
+    }
+
+    /** Process the rest of the input, as for process(), with M and in
+     *  _threads threads, starting with the settings line SETTINGS (null
+     *  if M is to be used as is until the first settings line).  The
+     *  input is divided at its settings lines into blocks, and blocks
+     *  are gathered into Tasks, which are converted concurrently, each
+     *  worker thread having its own Main and machine.  Results are
+     *  written in input order, stopping at the first error as process()
+     *  would.  M is left as process() would leave it. */
+    private void processConcurrently(Machine m, String settings) {
+        if (settings == null) {
+            while (peek() != -1 && peek() != '*') {
+                convertLine(m);
+            }
+            settings = readLine();
+        }
+        byte[] snapshot = BinaryFormat.encode(m);
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(
+            () -> BinaryFormat.decodeMachine(ByteBuffer.wrap(snapshot)));
+        ThreadLocal<Main> workers =
+            ThreadLocal.withInitial(() -> new Main(this));
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ArrayDeque<Future<Task>> pending = new ArrayDeque<>();
+        Task last = null;
+        try {
+            Task task = new Task(_bytes);
+            while (settings != null && peek() != -1) {
+                readBlock(task, settings);
+                settings = readLine();
+                if (task.length() >= TASK_SIZE) {
+                    Task full = task;
+                    pending.add(pool.submit(
+                        () -> workers.get().convert(machines.get(), full)));
+                    task = new Task(_bytes);
+                }
+                if (pending.size() == _threads * TASKS_PER_THREAD) {
+                    last = finish(pending.remove());
+                }
+            }
+            if (task.numBlocks() > 0) {
+                Task rest = task;
+                pending.add(pool.submit(
+                    () -> workers.get().convert(machines.get(), rest)));
+            }
+            while (!pending.isEmpty()) {
+                last = finish(pending.remove());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (last != null) {
+            configure(m, last.lastSettings());
+            m.skip(last.converted());
+        }
+    }
+
+    /** Append the message lines following the current position of the
+     *  input up to the next settings line or the end of input to TASK, as
+     *  a block converted with settings line SETTINGS. */
+    private void readBlock(Task task, String settings) {
+        while (peek() != -1 && peek() != '*') {
+            for (int ch = read(); ch != -1; ch = read()) {
+                task.append(ch);
+                if (ch == '\n' || (ch == '\r' && peek() != '\n')) {
                     break;
                 }
             }
         }
+        task.endBlock(settings);
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Wait for the Task that RESULT will hold, write its output, and
+     *  return it, throwing the error that stopped it, if any. */
+    private Task finish(Future<Task> result) {
+        Task task;
+        try {
+            task = result.get();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("%s", excp.getCause());
+        }
+        drain();
+        try {
+            if (_bytes) {
+                task.byteOutput().writeTo(_outStream);
+            } else {
+                task.charOutput().writeTo(_output);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        if (task.error() != null) {
+            throw task.error();
+        }
+        return task;
+    }
+
+    /** Convert the blocks of TASK in order with M, recording the results
+     *  in TASK, and return TASK.  Conversion stops at the first error,
+     *  which is recorded in TASK along with the output before it. */
+    private Task convert(Machine m, Task task) {
+        _inStream = InputStream.nullInputStream();
+        _outStream = task.byteOutput();
+        _output = task.charOutput();
+        if (_bytes) {
+            _inBytes = ByteBuffer.wrap(task.bytes());
+        } else {
+            _inBuf = task.chars();
+        }
+        int start = 0;
         try {
-            _alphabet = new Alphabet(_config.next());
-            int numRotors = _config.nextInt();
-            int pawls = _config.nextInt();
+            for (int k = 0; k < task.numBlocks(); k++) {
+                _inPos = start;
+                _inLen = start = task.blockEnd(k);
+                _converted = 0;
+                setUp(m, task.settings(k));
+                while (peek() != -1) {
+                    convertLine(m);
+                }
+                task.setConverted(_converted);
+            }
+        } catch (EnigmaException excp) {
+            task.setError(excp);
+        } finally {
+            flush();
+        }
+        return task;
+    }
+
+    /** Prepare to read and write _inStream and _outStream.  When my
+     *  alphabet is ASCII and _charset encodes ASCII characters as
+     *  themselves, input and output are handled as bytes, each byte a
+     *  character, with no decoding or encoding except of settings lines;
+     *  with --mmap, the input buffer is then a mapped region of
+     *  _inChannel, and the output buffer a direct buffer written to
+     *  _outChannel.  Otherwise they go through a Reader and Writer for
+     *  _charset. */
+    private void openStreams() {
+        _bytes = _alphabet.isAscii() && isAsciiCompatible(_charset);
+        if (_bytes && _inChannel != null) {
+            _inBytes = ByteBuffer.allocate(0);
+            _outBytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } else if (_bytes) {
+            _inBytes = ByteBuffer.allocate(BUFFER_SIZE);
+            _outBytes = ByteBuffer.allocate(BUFFER_SIZE);
+        } else {
+            _input = new InputStreamReader(_inStream, _charset);
+            _output = new OutputStreamWriter(_outStream,
+                                             _charset.newEncoder());
+            _inBuf = new char[BUFFER_SIZE];
+            _outBuf = new char[BUFFER_SIZE];
+        }
+    }
+
+    /** Return true iff CHARSET encodes each ASCII character as the
+     *  single byte with its value. */
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[Alphabet.ASCII_LIMIT];
+        for (int b = 0; b < ascii.length; b++) {
+            ascii[b] = (byte) b;
+        }
+        return Arrays.equals(ascii, new String(ascii, StandardCharsets
+                                               .ISO_8859_1).getBytes(charset));
+    }
+
+    /** Convert the rest of the current input line with M, ignoring
+     *  whitespace, and print the result in groups of five followed by a
+     *  line separator. */
+    private void convertLine(Machine m) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        if (_bytes) {
+            convertByteLine(m);
+        } else {
+            convertCharLine(m);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.MESSAGES.increment();
+            Metrics.MESSAGE_NANOS.record(System.nanoTime() - start);
+        }
+    }
 
-            ArrayList<Rotor> allR = new ArrayList<Rotor>();
+    /** Convert the rest of the current input line with M, as for
+     *  convertLine, when handling input as characters. */
+    private void convertCharLine(Machine m) {
+        int[] block = _block;
+        int count = 0, n = 0;
+        for (int ch = read(); !atEndOfLine(ch); ch = read()) {
+            if (isWhitespace(ch)) {
+                continue;
+            }
+            int ind = _alphabet.toInt((char) ch);
+            if (ind == -1) {
+                throw error("character '%c' not in alphabet", (char) ch);
+            }
+            block[n] = ind;
+            n += 1;
+            if (n == block.length) {
+                count = writeBlock(m, n, count);
+                n = 0;
+            }
+        }
+        writeBlock(m, n, count);
+        for (int i = 0; i < LINE_SEPARATOR.length(); i++) {
+            write(LINE_SEPARATOR.charAt(i));
+        }
+    }
 
-            while (_config.hasNext()) {
-                if (_config.hasNext("[\\(\\)]")) {
-                    throw new EnigmaException("bad config");
+    /** Convert the rest of the current input line with M, as for
+     *  convertLine, when handling input as bytes.  The input buffer,
+     *  which may be a mapped region of the input file, is scanned in
+     *  place with absolute gets, each byte looked up in my alphabet's
+     *  table. */
+    private void convertByteLine(Machine m) {
+        int[] block = _block;
+        int count = 0, n = 0;
+        while (_inPos < _inLen || fill()) {
+            ByteBuffer buf = _inBytes;
+            int pos = _inPos, len = _inLen;
+            for (; pos < len; pos++) {
+                byte b = buf.get(pos);
+                int ind = _alphabet.toInt(b);
+                if (ind == -1 || isWhitespace(b)) {
+                    if (b == '\n' || b == '\r') {
+                        break;
+                    } else if (isWhitespace(b)) {
+                        continue;
+                    }
+                    throw error("character '%c' not in alphabet",
+                                (char) (b & 0xff));
+                }
+                block[n] = ind;
+                n += 1;
+                if (n == block.length) {
+                    count = writeBlock(m, n, count);
+                    n = 0;
                 }
-                Rotor r = readRotor();
-                allR.add(r);
             }
-            return new Machine(_alphabet, numRotors, pawls, allR);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+            _inPos = pos;
+            if (pos < len) {
+                atEndOfLine(read());
+                break;
+            }
+        }
+        writeBlock(m, n, count);
+        for (int i = 0; i < LINE_SEPARATOR.length(); i++) {
+            write(LINE_SEPARATOR.charAt(i));
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            String nameRotor = _config.next();
-            if (nameRotor.contains("(") || nameRotor.contains(")")) {
-                throw new EnigmaException("bad config");
+    /** Convert the first N character indices of _block with M and print
+     *  them, where COUNT characters of the current line have already been
+     *  printed, adding a blank after every fifth.  Returns the new
+     *  count. */
+    private int writeBlock(Machine m, int n, int count) {
+        int[] block = _block;
+        m.convert(block, 0, n);
+        _converted += n;
+        if (_bytes) {
+            for (int k = 0; k < n; k++) {
+                if (_outLen + 2 > BUFFER_SIZE) {
+                    drain();
+                }
+                _outBytes.put(_outLen, _alphabet.toByte(block[k]));
+                _outLen += 1;
+                count += 1;
+                if (count % 5 == 0) {
+                    _outBytes.put(_outLen, (byte) ' ');
+                    _outLen += 1;
+                }
             }
-            String typeRotor = _config.next();
-            String perm = "";
+            return count;
+        }
+        for (int k = 0; k < n; k++) {
+            write(_alphabet.toChar(block[k]));
+            count += 1;
+            if (count % 5 == 0) {
+                write(' ');
+            }
+        }
+        return count;
+    }
 
-            while (_config.hasNext("\\(.*\\)")) {
-                perm += _config.next();
+    /** Return the rest of the current input line, or null if the input
+     *  is exhausted. */
+    private String readLine() {
+        if (peek() == -1) {
+            return null;
+        }
+        if (_bytes) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (int ch = read(); !atEndOfLine(ch); ch = read()) {
+                line.write(ch);
             }
+            return new String(line.toByteArray(), _charset);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int ch = read(); !atEndOfLine(ch); ch = read()) {
+            line.append((char) ch);
+        }
+        return line.toString();
+    }
+
+    /** Return true iff CH, just read from _input, ends a line (consuming
+     *  the '\n' of a "\r\n" pair). */
+    private boolean atEndOfLine(int ch) {
+        if (ch == '\r' && peek() == '\n') {
+            read();
+        }
+        return ch == -1 || ch == '\n' || ch == '\r';
+    }
+
+    /** Return true iff CH is a whitespace character as matched by the
+     *  regular expression \s. */
+    private static boolean isWhitespace(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B'
+            || ch == '\f' || ch == '\r';
+    }
 
-            Permutation permutate = new Permutation(perm, _alphabet);
+    /** Return the next character of _input without consuming it, or -1
+     *  at end of input. */
+    private int peek() {
+        if (_inPos == _inLen && !fill()) {
+            return -1;
+        }
+        return _bytes ? _inBytes.get(_inPos) & 0xff : _inBuf[_inPos];
+    }
 
-            if (typeRotor.charAt(0) == 'M') {
-                String notches = "";
-                for (int i = 1; i < typeRotor.length(); i++) {
-                    notches += typeRotor.charAt(i);
+    /** Refill the input buffer from its source, returning false if the
+     *  input is exhausted.  With --mmap, this maps the next region of
+     *  the input file. */
+    private boolean fill() {
+        if (_interactive) {
+            flush();
+        }
+        try {
+            if (_bytes && _inChannel != null) {
+                long n = Math.min(MAP_REGION_SIZE,
+                                  _inChannel.size() - _mapped);
+                if (n > 0) {
+                    _inBytes = _inChannel.map(FileChannel.MapMode.READ_ONLY,
+                                              _mapped, n);
+                    _mapped += n;
                 }
-                return new MovingRotor(nameRotor, permutate, notches);
-            } else if (typeRotor.charAt(0) == 'R') {
-                return new Reflector(nameRotor, permutate);
+                _inLen = (int) n;
+            } else if (_bytes) {
+                _inLen = Math.max(0, _inStream.read(_inBytes.array()));
             } else {
-                return new FixedRotor(nameRotor, permutate);
+                _inLen = Math.max(0, _input.read(_inBuf));
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            _inPos = 0;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
         }
+        return _inLen > 0;
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner sets = new Scanner(settings);
+    /** Consume and return the next character of _input, or -1 at end of
+     *  input. */
+    private int read() {
+        int ch = peek();
+        if (ch != -1) {
+            _inPos += 1;
+        }
+        return ch;
+    }
 
-        String[] test = settings.split("\\s");
+    /** Append CH, which must be ASCII when handling bytes, to the output
+     *  buffer, writing the buffer out when it fills. */
+    private void write(char ch) {
+        if (_outLen == BUFFER_SIZE) {
+            drain();
+        }
+        if (_bytes) {
+            _outBytes.put(_outLen, (byte) ch);
+        } else {
+            _outBuf[_outLen] = ch;
+        }
+        _outLen += 1;
+    }
 
-        for (int t = 1; t < test.length - 1; t++) {
-            for (int j = t + 1; j < test.length - 1; j++) {
-                if (test[t].equals(test[j])) {
-                    throw new EnigmaException("duplicate rotors");
+    /** Write the output buffer to its destination. */
+    private void drain() {
+        try {
+            if (_bytes && _outChannel != null) {
+                _outBytes.limit(_outLen);
+                while (_outBytes.hasRemaining()) {
+                    _outChannel.write(_outBytes);
                 }
+                _outBytes.clear();
+            } else if (_bytes) {
+                _outStream.write(_outBytes.array(), 0, _outLen);
+            } else {
+                _output.write(_outBuf, 0, _outLen);
             }
+            _outLen = 0;
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
         }
+    }
 
-        if (test.length < M.numRotors() + 1) {
-            throw new EnigmaException("Not enough rotors");
+    /** Write all buffered output through to its destination. */
+    private void flush() {
+        drain();
+        try {
+            if (_bytes) {
+                _outStream.flush();
+            } else {
+                _output.flush();
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    private Machine readConfig() {
+        long start = System.nanoTime();
+        Machine m;
+        ByteBuffer contents = BinaryFormat.map(Paths.get(_configName));
+        if (BinaryFormat.isBinary(contents)) {
+            m = BinaryFormat.decodeMachine(contents);
+        } else {
+            m = parseConfig().newMachine();
+        }
+        _alphabet = m.alphabet();
+        if (Metrics.ENABLED) {
+            Metrics.CONFIG_NANOS.record(System.nanoTime() - start);
+        }
+        return m;
+    }
+
+    /** Return the configuration in configuration file _configName.  If
+     *  the file holds a machine in binary form, only its rotors are
+     *  used. */
+    private Configuration readConfiguration() {
+        long start = System.nanoTime();
+        Configuration config;
+        ByteBuffer contents = BinaryFormat.map(Paths.get(_configName));
+        if (BinaryFormat.isBinary(contents)) {
+            config = BinaryFormat.decodeConfiguration(contents);
+        } else {
+            config = parseConfig();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CONFIG_NANOS.record(System.nanoTime() - start);
+        }
+        return config;
+    }
+
+    /** Return the configuration in the text configuration file
+     *  _configName, from _configCache if there is one. */
+    private Configuration parseConfig() {
+        if (_configCache != null) {
+            return _configCache.get(_configName);
         }
+        return Configuration.read(getConfig(_configName));
+    }
 
-        String[] rotorArray = new String[M.numRotors()];
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment, and count
+     *  the setup in Metrics.SETUPS. */
+    static void setUp(Machine M, String settings) {
+        configure(M, settings);
+        if (Metrics.ENABLED) {
+            Metrics.SETUPS.increment();
+        }
+    }
+
+    /** Set M according to SETTINGS, as for setUp, but without counting a
+     *  setup. */
+    private static void configure(Machine M, String settings) {
         if (!settings.contains("*")) {
             throw new EnigmaException("Invalid settings format");
         }
-
-        sets.next();
-        for (int i = 0; i < M.numRotors(); i++) {
-            rotorArray[i] = sets.next();
+        String[] fields = WHITESPACE.split(settings.trim());
+        if (fields.length < M.numRotors() + 1) {
+            throw new EnigmaException("Not enough rotors");
+        }
+        if (fields.length < M.numRotors() + 2) {
+            throw new EnigmaException("wrong amount of settings");
         }
 
+        String[] rotorArray = Arrays.copyOfRange(fields, 1,
+                                                 M.numRotors() + 1);
 
-        String setting = sets.next();
+        String setting = fields[M.numRotors() + 1];
         if (setting.length() != M.numRotors() - 1) {
             throw new EnigmaException("wrong amount of settings");
         }
 
-        M.insertRotors(rotorArray);
-        if (M.numMove() > M.numPawls()) {
-            throw new EnigmaException("incorrect args");
+        StringBuilder plug = new StringBuilder();
+        for (int i = M.numRotors() + 2; i < fields.length; i++) {
+            plug.append(fields[i]);
         }
+        M.reconfigure(rotorArray, setting, plug.toString());
+    }
 
-        M.setRotors(setting);
+    /** A run of consecutive blocks of input, each a settings line and the
+     *  message lines following it, to be converted by one worker, along
+     *  with the results of converting it. */
+    private static final class Task {
 
-        String plug = "";
-        while (sets.hasNext()) {
-            plug += sets.next();
+        /** An empty task whose input is held as bytes iff BYTES. */
+        Task(boolean bytes) {
+            if (bytes) {
+                _bytes = new byte[INITIAL_SIZE];
+                _byteOutput = new ByteArrayOutputStream();
+            } else {
+                _chars = new char[INITIAL_SIZE];
+                _charOutput = new CharArrayWriter();
+            }
         }
-        Permutation plugbd = new Permutation(plug, _alphabet);
-        M.setPlugboard(plugbd);
-    }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        for (int i = 0; i < msg.length(); i++) {
-            _output.print(msg.charAt(i));
-            if ((i + 1) % 5 == 0) {
-                _output.print(' ');
+        /** Append CH to the message lines of my last block. */
+        void append(int ch) {
+            int size = _bytes != null ? _bytes.length : _chars.length;
+            if (_length == size) {
+                if (_bytes != null) {
+                    _bytes = Arrays.copyOf(_bytes, 2 * size);
+                } else {
+                    _chars = Arrays.copyOf(_chars, 2 * size);
+                }
+            }
+            if (_bytes != null) {
+                _bytes[_length] = (byte) ch;
+            } else {
+                _chars[_length] = (char) ch;
             }
+            _length += 1;
+        }
+
+        /** End my last block, whose settings line is SETTINGS. */
+        void endBlock(String settings) {
+            _settings.add(settings);
+            _ends.add(_length);
+        }
+
+        /** Return the number of characters in my message lines. */
+        int length() {
+            return _length;
+        }
+
+        /** Return the number of my blocks. */
+        int numBlocks() {
+            return _settings.size();
+        }
+
+        /** Return the settings line of block K. */
+        String settings(int k) {
+            return _settings.get(k);
+        }
+
+        /** Return the end of the message lines of block K in my input,
+         *  the start of block K being the end of block K - 1 (or 0). */
+        int blockEnd(int k) {
+            return _ends.get(k);
         }
+
+        /** Return the settings line of my last block. */
+        String lastSettings() {
+            return _settings.get(_settings.size() - 1);
+        }
+
+        /** Return my message lines, if held as bytes, or else null. */
+        byte[] bytes() {
+            return _bytes;
+        }
+
+        /** Return my message lines, if held as chars, or else null. */
+        char[] chars() {
+            return _chars;
+        }
+
+        /** Return the destination of my output, if bytes, or else null. */
+        ByteArrayOutputStream byteOutput() {
+            return _byteOutput;
+        }
+
+        /** Return the destination of my output, if chars, or else null. */
+        CharArrayWriter charOutput() {
+            return _charOutput;
+        }
+
+        /** Record that N characters of the block being converted were
+         *  converted. */
+        void setConverted(long n) {
+            _converted = n;
+        }
+
+        /** Return the number of characters converted in the most recently
+         *  converted of my blocks. */
+        long converted() {
+            return _converted;
+        }
+
+        /** Record EXCP as the error that stopped my conversion. */
+        void setError(EnigmaException excp) {
+            _error = excp;
+        }
+
+        /** Return the error that stopped my conversion, or null. */
+        EnigmaException error() {
+            return _error;
+        }
+
+        /** Initial capacity of my input, in characters. */
+        private static final int INITIAL_SIZE = 1 << 10;
+
+        /** Message lines of my blocks, as bytes or as chars (the other
+         *  being null), occupying the first _length elements. */
+        private byte[] _bytes;
+
+        /** See _bytes. */
+        private char[] _chars;
+
+        /** Number of characters of input. */
+        private int _length;
+
+        /** Settings line of each block. */
+        private final ArrayList<String> _settings = new ArrayList<>();
+
+        /** End of the message lines of each block. */
+        private final ArrayList<Integer> _ends = new ArrayList<>();
+
+        /** Output, as bytes or as chars (the other being null). */
+        private ByteArrayOutputStream _byteOutput;
+
+        /** See _byteOutput. */
+        private CharArrayWriter _charOutput;
+
+        /** See converted(). */
+        private long _converted;
+
+        /** See error(). */
+        private EnigmaException _error;
     }
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Size of the input and output buffers, in characters. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Largest region of the input file mapped at once by --mmap. */
+    private static final long MAP_REGION_SIZE = 1 << 30;
+
+    /** Memory given to the machine's cache of whole-machine
+     *  substitutions (see Machine.setFusedCacheCapacity). */
+    private static final int FUSED_CACHE_BYTES = 1 << 24;
+
+    /** Printed after each message line. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
     /** Source of input messages. */
-    private Scanner _input;
+    private InputStream _inStream;
+
+    /** Destination of processed messages. */
+    private OutputStream _outStream;
+
+    /** Encoding of characters in _inStream and _outStream. */
+    private Charset _charset;
+
+    /** True iff input and output are handled as bytes, in which case
+     *  _inBytes and _outBytes are the buffers; otherwise _input, _output,
+     *  _inBuf and _outBuf are used. */
+    private boolean _bytes;
+
+    /** Source of input messages, decoding _inStream. */
+    private Reader _input;
+
+    /** Characters read from _input but not yet consumed are
+     *  _inBuf[_inPos .. _inLen-1]; likewise for bytes in _inBytes. */
+    private char[] _inBuf;
+
+    /** Bytes read from _inStream, or the mapped region of _inChannel,
+     *  when handling bytes.  Read with absolute gets; its position and
+     *  limit are unused. */
+    private ByteBuffer _inBytes;
+
+    /** Bounds of the unconsumed characters in the input buffer. */
+    private int _inPos, _inLen;
+
+    /** Processed characters not yet written to _output are
+     *  _outBuf[0 .. _outLen-1]; likewise for bytes in _outBytes. */
+    private char[] _outBuf;
+
+    /** Bytes not yet written to _outStream or _outChannel, when
+     *  handling bytes.  Written with absolute puts. */
+    private ByteBuffer _outBytes;
+
+    /** Input and output files with --mmap, or null. */
+    private FileChannel _inChannel, _outChannel;
+
+    /** Number of bytes of _inChannel mapped so far. */
+    private long _mapped;
+
+    /** Number of characters waiting in the output buffer. */
+    private int _outLen;
+
+    /** Indices of message characters read but not yet converted. */
+    private final int[] _block = new int[CompiledMachine.BATCH * 16];
+
+    /** Option introducing the directory for compiled configurations. */
+    private static final String CONFIG_CACHE_OPTION = "--config-cache=";
+
+    /** Name of the machine configuration file. */
+    private String _configName;
+
+    /** Separates the fields of a settings line. */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /** Option giving the number of threads in which to convert. */
+    private static final String THREADS_OPTION = "--threads=";
+
+    /** Number of threads in which to convert messages. */
+    private int _threads = 1;
+
+    /** Number of input characters gathered into a Task before it is
+     *  handed to a worker. */
+    private static final int TASK_SIZE = 1 << 16;
+
+    /** Number of Tasks per thread that may be awaiting output at once. */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /** Number of characters converted since the start of the current
+     *  block. */
+    private long _converted;
+
+    /** Option naming the file to which to save the final machine. */
+    private static final String SAVE_OPTION = "--save=";
+
+    /** Name of the file to which to save the final machine, or null. */
+    private String _saveName;
+
+    /** Option giving the interval between printed metrics. */
+    private static final String METRICS_OPTION = "--metrics=";
+
+    /** Seconds between printed metrics, or 0 if not keeping them. */
+    private int _metricsInterval;
+
+    /** Option giving the address on which to serve connections. */
+    private static final String SERVE_OPTION = "--serve=";
+
+    /** Address on which to serve connections, or null if converting a
+     *  single input. */
+    private String _serveAddress;
+
+    /** Milliseconds between checks for changes to the configuration file
+     *  when serving connections. */
+    private static final long RELOAD_INTERVAL = 1000;
+
+    /** Largest TCP port number. */
+    private static final int MAX_PORT = 65535;
+
+    /** True iff output is to be flushed whenever waiting for input. */
+    private boolean _interactive;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Cache of compiled configurations, or null if not caching. */
+    private ConfigCache _configCache;
 
-    /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    /** File for encoded/decoded messages, encoding _outStream. */
+    private Writer _output;
 
     /** Number of Moving rotors. */
     private int numMov;
@@ -0,0 +1,338 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Main class.
+ *  @author Pauline Tang
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Scratch directory, deleted after each test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration file for the naval machine. */
+    private static final String CONFIG = String.join(
+        System.lineSeparator(),
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        "5 3",
+        "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+        "    (RX) (SZ) (TV)",
+        "");
+
+    /** Two blocks of input, each a settings line and its messages. */
+    private static final String[] BLOCKS = {
+        String.format("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)%n"
+                      + "FROM HIS SHOULDER HIAWATHA%n"
+                      + "TOOK THE CAMERA OF ROSEWOOD%n"),
+        String.format("* B Beta I III IV ZZZZ (AB)%n"
+                      + "MADE OF SLIDING FOLDING ROSEWOOD%n%n"
+                      + "NEATLY PUT IT ALL TOGETHER%n"),
+    };
+
+    /** Return the name of a new file in my scratch directory containing
+     *  CONTENTS. */
+    private String file(String contents) throws IOException {
+        File result = folder.newFile();
+        Files.write(result.toPath(),
+                    contents.getBytes(StandardCharsets.US_ASCII));
+        return result.getPath();
+    }
+
+    /** Return the output of Main in file mode on INPUT, with the options
+     *  OPTIONS. */
+    private String fileOutput(String input, String... options)
+        throws IOException {
+        String output = folder.newFile().getPath();
+        String[] args = Arrays.copyOf(options, options.length + 3);
+        args[options.length] = file(CONFIG);
+        args[options.length + 1] = file(input);
+        args[options.length + 2] = output;
+        new Main(args).process();
+        return new String(Files.readAllBytes(new File(output).toPath()),
+                          StandardCharsets.US_ASCII);
+    }
+
+    /** Return the message of the error that Main reports in file mode on
+     *  INPUT, with the options OPTIONS. */
+    private String fileError(String input, String... options)
+        throws IOException {
+        try {
+            fileOutput(input, options);
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+        fail("no error reported");
+        return null;
+    }
+
+    /** Return input of N blocks, each a settings line and a few message
+     *  lines, with a mix of line endings, blank lines, and blanks and
+     *  tabs within messages.  The last line has no line ending. */
+    private String mixedInput(int n) {
+        String[] rotors = {"III IV I", "I III IV", "IV I III"};
+        String[] ends = {"\n", "\r\n", "\r"};
+        Random random = new Random(n);
+        StringBuilder input = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            input.append(String.format("* B Beta %s %c%c%c%c (AB) (CD)%s",
+                                       rotors[k % rotors.length],
+                                       'A' + k % 26, 'A' + k / 26 % 26,
+                                       'Q', 'Z' - k % 26, ends[k % 3]));
+            for (int line = random.nextInt(4); line >= 0; line--) {
+                String msg = randomMessage(random.nextInt(200));
+                input.append(line == 1 ? "" : msg.replace('Q', '\t'))
+                    .append(ends[random.nextInt(ends.length)]);
+            }
+        }
+        input.append("HELLO WORLD");
+        return input.toString();
+    }
+
+    /** Return the output expected of Main on INPUT, computed a line at a
+     *  time with Machine.convert(String). */
+    private String expectedOutput(String input) {
+        Machine m = Configuration.read(new Scanner(CONFIG)).newMachine();
+        StringBuilder out = new StringBuilder();
+        for (String line : input.split("\\r\\n|\\r|\\n")) {
+            if (line.startsWith("*")) {
+                Main.setUp(m, line);
+                continue;
+            }
+            String msg = m.convert(line.replaceAll("\\s", ""));
+            for (int i = 0; i < msg.length(); i++) {
+                out.append(msg.charAt(i));
+                if ((i + 1) % 5 == 0) {
+                    out.append(' ');
+                }
+            }
+            out.append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+
+    /** Return a thread, already started, serving on ADDRESS with Main
+     *  until it is interrupted. */
+    private Thread serve(String address) throws IOException {
+        Main main = new Main(new String[] {"--serve=" + address,
+                                           file(CONFIG)});
+        Thread server = new Thread(() -> {
+            try {
+                main.process();
+            } catch (EnigmaException excp) {
+                /* Interrupted. */
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        return server;
+    }
+
+    /** Stop SERVER, as returned by serve. */
+    private void stop(Thread server) throws InterruptedException {
+        server.interrupt();
+        server.join();
+    }
+
+    /** Return a connection to the server on ADDRESS, waiting for the
+     *  server to start listening. */
+    private SocketChannel connect(SocketAddress address)
+        throws InterruptedException {
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            } catch (IOException excp) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /** Send TEXT on CLIENT. */
+    private void send(SocketChannel client, String text)
+        throws IOException {
+        ByteBuffer bytes =
+            ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            client.write(bytes);
+        }
+    }
+
+    /** Return the text read from CLIENT until it has received at least
+     *  LENGTH characters, or until end of input if LENGTH is negative. */
+    private String receive(SocketChannel client, int length)
+        throws IOException {
+        StringBuilder result = new StringBuilder();
+        ByteBuffer bytes = ByteBuffer.allocate(256);
+        while (length < 0 || result.length() < length) {
+            bytes.clear();
+            if (client.read(bytes) < 0) {
+                break;
+            }
+            result.append(new String(bytes.array(), 0, bytes.position(),
+                                     StandardCharsets.US_ASCII));
+        }
+        return result.toString();
+    }
+
+    /** Send BLOCKS to the server on ADDRESS, one at a time, checking
+     *  that the conversion of each arrives before the next is sent, and
+     *  that together they are as in file mode. */
+    private void checkConversation(SocketAddress address)
+        throws IOException, InterruptedException {
+        String first = fileOutput(BLOCKS[0]);
+        try (SocketChannel client = connect(address)) {
+            send(client, BLOCKS[0]);
+            String reply = receive(client, first.length());
+            assertEquals(first, reply);
+            send(client, BLOCKS[1]);
+            client.shutdownOutput();
+            reply += receive(client, -1);
+            assertEquals(fileOutput(BLOCKS[0] + BLOCKS[1]), reply);
+        }
+    }
+
+    /** Return a loopback port on which nothing is listening. */
+    private int freePort() throws IOException {
+        try (ServerSocket socket =
+             new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testStreaming() throws IOException {
+        for (int n : new int[] {1, 3, 40}) {
+            String input = mixedInput(n);
+            assertEquals(expectedOutput(input), fileOutput(input));
+        }
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        assertEquals("No settings inputted", fileError(""));
+        assertEquals("", fileOutput("* B Beta III IV I AXLE\r\n"));
+    }
+
+    @Test
+    public void testThreads() throws IOException {
+        for (int n : new int[] {1, 3, 1000}) {
+            String input = mixedInput(n);
+            String serial = fileOutput(input);
+            for (String threads : new String[] {"--threads=2",
+                                                "--threads=5"}) {
+                assertEquals(threads, serial, fileOutput(input, threads));
+                assertEquals(threads, serial,
+                             fileOutput(input, threads, "--mmap"));
+            }
+        }
+        assertEquals(fileError(""), fileError("", "--threads=3"));
+        String bad = mixedInput(1000) + "\n* B Beta III IV I AXLE\nAB1\n";
+        assertEquals(fileError(bad), fileError(bad, "--threads=3"));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        for (int n : new int[] {1, 3, 40}) {
+            String input = mixedInput(n);
+            assertEquals(fileOutput(input), fileOutput(input, "--mmap"));
+        }
+        assertEquals(fileError(""), fileError("", "--mmap"));
+        assertEquals(fileError("* B Beta III IV I AXLE\nAB1\n"),
+                     fileError("* B Beta III IV I AXLE\nAB1\n", "--mmap"));
+    }
+
+    @Test
+    public void testServePort() throws Exception {
+        int port = freePort();
+        Thread server = serve(Integer.toString(port));
+        try {
+            checkConversation(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port));
+        } finally {
+            stop(server);
+        }
+    }
+
+    @Test
+    public void testServeBadPort() throws IOException {
+        for (String port : new String[] {"65536", "70000", "99999999999"}) {
+            try {
+                new Main(new String[] {"--serve=" + port, file(CONFIG)});
+                fail(msg("--serve", "%s", port));
+            } catch (EnigmaException excp) {
+                assertEquals("bad port: " + port, excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testServeError() throws Exception {
+        int port = freePort();
+        Thread server = serve(Integer.toString(port));
+        try (SocketChannel client = connect(new InetSocketAddress(
+                 InetAddress.getLoopbackAddress(), port))) {
+            send(client, String.format("* B Beta III IV X AXLE%nHELLO%n"));
+            client.shutdownOutput();
+            String reply = receive(client, -1);
+            assertTrue(reply, reply.startsWith("Error: "));
+            assertTrue(reply, reply.endsWith(System.lineSeparator()));
+        } finally {
+            stop(server);
+        }
+    }
+
+    @Test
+    public void testServeStaleSocket() throws Exception {
+        Path socket = folder.getRoot().toPath().resolve("enigma.sock");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        try (ServerSocketChannel old =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            old.bind(address);
+        }
+        assertTrue(Files.exists(socket));
+        Thread server = serve(socket.toString());
+        try {
+            checkConversation(address);
+        } finally {
+            stop(server);
+        }
+        assertFalse(Files.exists(socket));
+    }
+
+}
@@ -0,0 +1,238 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Counters and histograms of the work done by Machines and Main.
+ *  They are kept only if the system property enigma.metrics is "true"
+ *  when this class is first used (Main.main sets it for --metrics
+ *  before anything else runs).  ENABLED is then a constant, so the JIT
+ *  drops the code guarded by it when metrics are off.  Counters are
+ *  LongAdders, which keep a cell per contending thread, so threads
+ *  counting at once do not slow each other down.  Hot loops count into
+ *  locals (or, in Machine, per-machine fields) and add the totals here
+ *  once per batch.
+ *
+ *  When enabled, the metrics are published as the MXBean
+ *  enigma:type=Metrics (see MetricsMXBean), and report() gives them as
+ *  text.
+ *  @author Pauline Tang
+ */
+final class Metrics {
+
+    /** Not instantiable. */
+    private Metrics() {
+    }
+
+    /** True iff metrics are kept. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Name of the MXBean publishing the metrics. */
+    static final String BEAN_NAME = "enigma:type=Metrics";
+
+    /** Characters converted by Machines. */
+    static final LongAdder CHARACTERS = new LongAdder();
+
+    /** Rotors other than the rightmost advanced by Machines, counting
+     *  each rotor that advances on a keypress. */
+    static final LongAdder ROTOR_STEPS = new LongAdder();
+
+    /** Double steps: advances of a rotor pushed by its own notch, as
+     *  well as its right neighbour's. */
+    static final LongAdder DOUBLE_STEPS = new LongAdder();
+
+    /** Message lines converted by Main. */
+    static final LongAdder MESSAGES = new LongAdder();
+
+    /** Settings lines set up by Main. */
+    static final LongAdder SETUPS = new LongAdder();
+
+    /** Nanoseconds taken to convert each message line. */
+    static final Histogram MESSAGE_NANOS = new Histogram();
+
+    /** Nanoseconds taken to read each configuration file. */
+    static final Histogram CONFIG_NANOS = new Histogram();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new Bean(), new ObjectName(BEAN_NAME));
+            } catch (JMException excp) {
+                System.err.printf("Warning: could not publish metrics: %s%n",
+                                  excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the current metrics as text, one "name value" pair per
+     *  line. */
+    static String report() {
+        StringBuilder result = new StringBuilder();
+        Bean bean = new Bean();
+        line(result, "characters", bean.getCharacters());
+        line(result, "rotor_steps", bean.getRotorSteps());
+        line(result, "double_steps", bean.getDoubleSteps());
+        line(result, "messages", bean.getMessages());
+        line(result, "setups", bean.getSetups());
+        MESSAGE_NANOS.report(result, "message_nanos");
+        CONFIG_NANOS.report(result, "config_nanos");
+        return result.toString();
+    }
+
+    /** Append a line giving NAME and VALUE to OUT. */
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(String.format(Locale.ROOT, "%s %d%n", name, value));
+    }
+
+    /** Print report() to the standard error every SECONDS seconds, in a
+     *  daemon thread, until the program ends. */
+    static void reportEvery(long seconds) {
+        ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-report");
+                thread.setDaemon(true);
+                return thread;
+            });
+        timer.scheduleAtFixedRate(() -> System.err.print(report()),
+                                  seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /** A histogram of non-negative values, with a bucket for each power
+     *  of two. */
+    static final class Histogram {
+
+        /** An empty histogram. */
+        Histogram() {
+            for (int k = 0; k < _buckets.length; k++) {
+                _buckets[k] = new LongAdder();
+            }
+        }
+
+        /** Add VALUE to me. */
+        void record(long value) {
+            int bucket = Long.SIZE
+                - Long.numberOfLeadingZeros(Math.max(0, value));
+            _buckets[bucket].increment();
+            _total.add(value);
+            _max.accumulate(value);
+        }
+
+        /** Return the number of values recorded. */
+        long count() {
+            long result = 0;
+            for (LongAdder bucket : _buckets) {
+                result += bucket.sum();
+            }
+            return result;
+        }
+
+        /** Return the sum of the values recorded. */
+        long total() {
+            return _total.sum();
+        }
+
+        /** Return the largest value recorded, or 0 if none. */
+        long max() {
+            return _max.get();
+        }
+
+        /** Return an upper bound, within a factor of two, on the
+         *  FRACTION-quantile of the values recorded, or 0 if none. */
+        long quantile(double fraction) {
+            long count = count();
+            long seen = 0;
+            for (int k = 0; k < _buckets.length; k++) {
+                seen += _buckets[k].sum();
+                if (seen > 0 && seen >= fraction * count) {
+                    return Math.min(max(), k == 0 ? 0 : (1L << k) - 1);
+                }
+            }
+            return 0;
+        }
+
+        /** Append my count, total, median, 99th percentile, and maximum
+         *  to OUT, as lines whose names start with NAME. */
+        void report(StringBuilder out, String name) {
+            line(out, name + "_count", count());
+            line(out, name + "_total", total());
+            line(out, name + "_p50", quantile(MEDIAN));
+            line(out, name + "_p99", quantile(P99));
+            line(out, name + "_max", max());
+        }
+
+        /** Number of values recorded in each bucket: bucket K holds values
+         *  of K bits. */
+        private final LongAdder[] _buckets = new LongAdder[Long.SIZE + 1];
+
+        /** Sum of the values recorded. */
+        private final LongAdder _total = new LongAdder();
+
+        /** Largest value recorded. */
+        private final LongAccumulator _max = new LongAccumulator(Math::max,
+                                                                 0);
+    }
+
+    /** The metrics as an MXBean. */
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public long getCharacters() {
+            return CHARACTERS.sum();
+        }
+
+        @Override
+        public long getRotorSteps() {
+            return ROTOR_STEPS.sum();
+        }
+
+        @Override
+        public long getDoubleSteps() {
+            return DOUBLE_STEPS.sum();
+        }
+
+        @Override
+        public long getMessages() {
+            return MESSAGES.sum();
+        }
+
+        @Override
+        public long getSetups() {
+            return SETUPS.sum();
+        }
+
+        @Override
+        public long getMessageNanosMedian() {
+            return MESSAGE_NANOS.quantile(MEDIAN);
+        }
+
+        @Override
+        public long getMessageNanos99thPercentile() {
+            return MESSAGE_NANOS.quantile(P99);
+        }
+
+        @Override
+        public long getMessageNanosMax() {
+            return MESSAGE_NANOS.max();
+        }
+
+        @Override
+        public long getConfigReads() {
+            return CONFIG_NANOS.count();
+        }
+
+        @Override
+        public long getConfigNanosTotal() {
+            return CONFIG_NANOS.total();
+        }
+    }
+
+    /** Quantiles reported. */
+    private static final double MEDIAN = 0.5, P99 = 0.99;
+}
@@ -0,0 +1,44 @@
+package enigma;
+
+/** The management interface of the metrics kept by Metrics, published
+ *  as the MXBean enigma:type=Metrics when they are enabled.
+ *  @author Pauline Tang
+ */
+public interface MetricsMXBean {
+
+    /** Return the number of characters converted by Machines. */
+    long getCharacters();
+
+    /** Return the number of advances of rotors other than the rightmost
+     *  by Machines. */
+    long getRotorSteps();
+
+    /** Return the number of those advances that were double steps. */
+    long getDoubleSteps();
+
+    /** Return the number of message lines converted by Main. */
+    long getMessages();
+
+    /** Return the number of settings lines set up by Main. */
+    long getSetups();
+
+    /** Return an upper bound, within a factor of two, on the median time
+     *  to convert a message line, in nanoseconds. */
+    long getMessageNanosMedian();
+
+    /** Return an upper bound, within a factor of two, on the 99th
+     *  percentile of the time to convert a message line, in
+     *  nanoseconds. */
+    long getMessageNanos99thPercentile();
+
+    /** Return the longest time taken to convert a message line, in
+     *  nanoseconds. */
+    long getMessageNanosMax();
+
+    /** Return the number of configuration files read. */
+    long getConfigReads();
+
+    /** Return the total time spent reading configuration files, in
+     *  nanoseconds. */
+    long getConfigNanosTotal();
+}
@@ -0,0 +1,267 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Pauline Tang
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Scratch directory, deleted after each test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Counts made while converting with the machine on each path, in a
+     *  JVM with metrics on.  ENABLED is fixed when Metrics is loaded, and
+     *  off in the JVM running the tests, so the counting is checked in
+     *  a JVM of its own, which prints a line for each path giving its
+     *  name and the counters it changed. */
+    static final class Probe {
+
+        /** Configuration with the reflector B, the fixed rotor Beta, and
+         *  the moving rotors I, II, and III. */
+        private static final String CONFIG = String.join(
+            System.lineSeparator(),
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+            "5 3",
+            "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+            "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+            "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+            "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+            "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+            "    (RX) (SZ) (TV)",
+            "");
+
+        /** Print the counts for each path. */
+        public static void main(String... ignored) throws IOException {
+            Machine m = machine();
+            long[] before = counts();
+            for (int c : new int[] {0, 1, 2}) {
+                m.convert(c);
+            }
+            print("convert", before);
+
+            String msg = UPPER_STRING.repeat(3);
+            m = machine();
+            before = counts();
+            m.convert(msg);
+            print("batch", before);
+
+            m = machine();
+            before = counts();
+            m.convert(msg, ForkJoinPool.commonPool());
+            print("parallel", before);
+
+            Session session = machine().newSession();
+            before = counts();
+            session.update(msg.substring(0, 1));
+            session.doFinal(msg.substring(1));
+            print("session", before);
+
+            File config = File.createTempFile("metrics", ".conf"),
+                input = File.createTempFile("metrics", ".in"),
+                output = File.createTempFile("metrics", ".out");
+            try {
+                Files.write(config.toPath(),
+                            CONFIG.getBytes(StandardCharsets.US_ASCII));
+                Files.write(input.toPath(), String.format(
+                    "* B Beta I II III AADU%nHELLO%n"
+                    + "* B Beta I II III ZZZZ%nHELLO%n"
+                    + "* B Beta III II I AAAA%nHELLO%n")
+                    .getBytes(StandardCharsets.US_ASCII));
+                before = counts();
+                new Main(new String[] {"--threads=4", config.getPath(),
+                                       input.getPath(), output.getPath()})
+                    .process();
+                print("threads", before);
+            } finally {
+                config.delete();
+                input.delete();
+                output.delete();
+            }
+        }
+
+        /** Return a machine of CONFIG set to "* B Beta I II III AADU",
+         *  from which the third keypress double steps rotor II. */
+        private static Machine machine() {
+            Configuration config = new Configuration(
+                UPPER, 5, 3,
+                new ArrayList<>(Arrays.asList(
+                    new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                       UPPER)),
+                    navalRotor("Beta", null),
+                    navalRotor("I", "Q"), navalRotor("II", "E"),
+                    navalRotor("III", "V"))));
+            Machine m = config.newMachine();
+            m.reconfigure(new String[] {"B", "Beta", "I", "II", "III"},
+                          "AADU", "");
+            return m;
+        }
+
+        /** Return the current characters, rotor steps, double steps, and
+         *  setups. */
+        private static long[] counts() {
+            return new long[] {
+                Metrics.CHARACTERS.sum(), Metrics.ROTOR_STEPS.sum(),
+                Metrics.DOUBLE_STEPS.sum(), Metrics.SETUPS.sum()
+            };
+        }
+
+        /** Print NAME and the changes in counts() since BEFORE. */
+        private static void print(String name, long[] before) {
+            long[] after = counts();
+            StringBuilder line = new StringBuilder(name);
+            for (int k = 0; k < after.length; k++) {
+                line.append(' ').append(after[k] - before[k]);
+            }
+            System.out.println(line);
+        }
+    }
+
+    /** Return the lines printed, on the standard output and error, by
+     *  the main method of class MAIN run in a JVM of its own with
+     *  arguments ARGS, checking that it exits normally.  The JVM's
+     *  options are JVMOPTIONS. */
+    private List<String> run(List<String> jvmOptions, String main,
+                             String... args)
+        throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"),
+                             "bin/java").getPath());
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList("-cp",
+                                     System.getProperty("java.class.path"),
+                                     main));
+        command.addAll(Arrays.asList(args));
+        Process process =
+            new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                                   StandardCharsets.US_ASCII);
+        assertEquals(output, 0, process.waitFor());
+        return Arrays.asList(output.split("\\R"));
+    }
+
+    /** Return the lines printed by Probe in a JVM with metrics on. */
+    private List<String> probe() throws IOException, InterruptedException {
+        return run(Arrays.asList("-Denigma.metrics=true"),
+                   Probe.class.getName());
+    }
+
+    /** Return the name of a new file in my scratch directory containing
+     *  CONTENTS. */
+    private String file(String contents) throws IOException {
+        File result = folder.newFile();
+        Files.write(result.toPath(),
+                    contents.getBytes(StandardCharsets.US_ASCII));
+        return result.getPath();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCounts() throws Exception {
+        List<String> lines = probe();
+        assertEquals(Arrays.asList(
+            "convert 3 3 1 0",
+            "batch 78 5 1 0",
+            "parallel 78 5 1 0",
+            "session 78 5 1 0",
+            "threads 15 3 1 3"), lines);
+    }
+
+    @Test
+    public void testMetricsOption() throws Exception {
+        String config = file(Probe.CONFIG),
+            input = file(String.format("* B Beta I II III AADU%nHELLO%n")),
+            output = folder.newFile().getPath();
+        List<String> lines = run(new ArrayList<String>(), Main.class.getName(),
+                                 "--metrics=60", config, input, output);
+        assertTrue(lines.toString(), lines.contains("characters 5"));
+        assertTrue(lines.toString(), lines.contains("setups 1"));
+        assertFalse(Metrics.ENABLED);
+        try {
+            new Main(new String[] {"--metrics=60", config, input, output});
+            fail("--metrics accepted with metrics off");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.total());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.quantile(0.5));
+    }
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int k = 1; k <= 100; k++) {
+            histogram.record(k);
+        }
+        histogram.record(0);
+        assertEquals(101, histogram.count());
+        assertEquals(5050, histogram.total());
+        assertEquals(100, histogram.max());
+        long median = histogram.quantile(0.5);
+        assertTrue(median >= 50 && median < 100);
+        assertEquals(100, histogram.quantile(0.99));
+        assertEquals(0, histogram.quantile(0));
+    }
+
+    @Test
+    public void testConcurrentRecords() throws InterruptedException {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 10000; k++) {
+                    histogram.record(k);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.count());
+        assertEquals(4L * (9999 * 10000 / 2), histogram.total());
+        assertEquals(9999, histogram.max());
+    }
+
+    @Test
+    public void testReport() {
+        String report = Metrics.report();
+        for (String name : new String[] {"characters", "rotor_steps",
+                                         "double_steps", "messages",
+                                         "setups", "message_nanos_p99",
+                                         "config_nanos_count"}) {
+            assertTrue(name, report.matches("(?s)(.*\\n)?" + name
+                                            + " \\d+\\R.*"));
+        }
+    }
+}
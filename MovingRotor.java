@@ -16,19 +16,57 @@ class MovingRotor extends Rotor {
         super(name, perm);
         _notches = notches;
         _setting = 0;
-        _perm = perm;
+        _stepsToNotch = new int[size()];
+        boolean[] isNotch = new boolean[size()];
+        for (int i = 0; i < notches.length(); i++) {
+            if (alphabet().contains(notches.charAt(i))) {
+                isNotch[alphabet().toInt(notches.charAt(i))] = true;
+            }
+        }
+        int next = Integer.MAX_VALUE;
+        for (int k = 2 * size() - 1; k >= 0; k--) {
+            if (isNotch[k % size()]) {
+                next = k;
+            }
+            if (k < size()) {
+                _stepsToNotch[k] = next == Integer.MAX_VALUE
+                    ? next : next - k;
+            }
+        }
+    }
+
+    /** A moving rotor with the name, wiring, and notches of ROTOR, at
+     *  setting 0. */
+    MovingRotor(MovingRotor rotor) {
+        super(rotor);
+        _notches = rotor._notches;
+        _setting = 0;
+        _stepsToNotch = rotor._stepsToNotch;
+    }
+
+    @Override
+    MovingRotor copy() {
+        return new MovingRotor(this);
+    }
+
+    @Override
+    void reset() {
+        _setting = 0;
     }
 
     @Override
     boolean atNotch() {
-        for (int i = 0; i < _notches.length(); i++) {
-            char c = _notches.charAt(i);
-            int ind = alphabet().toInt(c);
-            if (this._setting == ind) {
-                return true;
-            }
-        }
-        return false;
+        return _stepsToNotch[_setting] == 0;
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _stepsToNotch[posn] == 0;
+    }
+
+    @Override
+    int stepsToNotch(int posn) {
+        return _stepsToNotch[posn];
     }
 
     @Override
@@ -48,10 +86,10 @@ class MovingRotor extends Rotor {
 
     @Override
     void set(int posn) {
-        if (!alphabet().contains(alphabet().toChar(posn))) {
+        if (posn < 0 || posn >= size()) {
             throw new EnigmaException("Setting out of bounds");
         }
-        _setting = (posn % alphabet().size());
+        _setting = posn;
     }
 
     @Override
@@ -62,28 +100,6 @@ class MovingRotor extends Rotor {
         _setting = alphabet().toInt(cposn);
     }
 
-    @Override
-    int convertForward(int p) {
-        int contact = (p + _setting) % size();
-        int contactExited = _perm.permute(contact);
-        int positionExited = (contactExited - _setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
-        }
-        return positionExited;
-    }
-
-    @Override
-    int convertBackward(int e) {
-        int contact = (e + this._setting) % size();
-        int contactExited = _perm.invert(contact);
-        int positionExited = (contactExited - this._setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
-        }
-        return positionExited;
-    }
-
     /** notches.
      * @return _notches string
      */
@@ -97,12 +113,7 @@ class MovingRotor extends Rotor {
     /** notches. */
     private String _notches;
 
-    /** Permutation. */
-    private Permutation _perm;
-
-    /** Permutation.
-     * @return _perm */
-    Permutation permutation() {
-        return _perm;
-    }
+    /** Number of advances from each setting to the next notch (see
+     *  stepsToNotch). */
+    private final int[] _stepsToNotch;
 }
@@ -0,0 +1,171 @@
+package enigma;
+
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** The frequencies of the sequences of some fixed number of characters
+ *  ("n-grams") in a language written in some alphabet, used to score
+ *  how much a candidate decryption looks like that language.  Scores are
+ *  sums of base-10 logarithms of n-gram probabilities, so higher is
+ *  better.  An NGrams is never changed once built, and may be shared
+ *  among threads.
+ *  @author Pauline Tang
+ */
+final class NGrams {
+
+    /** Largest number of distinct n-grams kept. */
+    static final int MAX_NGRAMS = 1 << 24;
+
+    /** N-grams of N characters in ALPHABET, with COUNTS[K] occurrences of
+     *  the K-th in lexicographic order. */
+    private NGrams(Alphabet alphabet, int n, long[] counts) {
+        _alphabet = alphabet;
+        _n = n;
+        _span = counts.length / alphabet.size();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            throw error("no n-grams counted");
+        }
+        _logProb = new float[counts.length];
+        float floor = (float) Math.log10(UNSEEN / total);
+        for (int k = 0; k < counts.length; k++) {
+            _logProb[k] = counts[k] == 0 ? floor
+                : (float) Math.log10((double) counts[k] / total);
+        }
+    }
+
+    /** Return the n-grams of ALPHABET described by the contents of COUNTS:
+     *  pairs of an n-gram and its number of occurrences, all n-grams
+     *  having the same length. */
+    static NGrams read(Alphabet alphabet, Scanner counts) {
+        try {
+            String ngram = counts.next();
+            int n = ngram.length();
+            long[] result = new long[numNGrams(alphabet, n)];
+            while (true) {
+                if (ngram.length() != n) {
+                    throw error("n-grams of different lengths");
+                }
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    int c = alphabet.toInt(ngram.charAt(i));
+                    if (c == -1) {
+                        throw error("character '%c' not in alphabet",
+                                    ngram.charAt(i));
+                    }
+                    k = k * alphabet.size() + c;
+                }
+                result[k] += counts.nextLong();
+                if (!counts.hasNext()) {
+                    break;
+                }
+                ngram = counts.next();
+            }
+            return new NGrams(alphabet, n, result);
+        } catch (NoSuchElementException excp) {
+            throw error("n-gram counts truncated");
+        }
+    }
+
+    /** Return the N-grams of ALPHABET that occur in TEXT, ignoring
+     *  characters not in ALPHABET. */
+    static NGrams count(Alphabet alphabet, int n, CharSequence text) {
+        long[] result = new long[numNGrams(alphabet, n)];
+        int span = result.length / alphabet.size();
+        int k = 0, run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int c = alphabet.toInt(text.charAt(i));
+            if (c == -1) {
+                continue;
+            }
+            k = k % span * alphabet.size() + c;
+            run += 1;
+            if (run >= n) {
+                result[k] += 1;
+            }
+        }
+        return new NGrams(alphabet, n, result);
+    }
+
+    /** Return the number of N-grams of ALPHABET, checking that there are
+     *  not too many. */
+    private static int numNGrams(Alphabet alphabet, int n) {
+        if (n < 1) {
+            throw error("n-grams must have at least one character");
+        }
+        long result = 1;
+        for (int i = 0; i < n; i++) {
+            result *= alphabet.size();
+            if (result > MAX_NGRAMS) {
+                throw error("too many %d-grams of alphabet", n);
+            }
+        }
+        return (int) result;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of characters in each of my n-grams. */
+    int length() {
+        return _n;
+    }
+
+    /** Return the score of the character indices TEXT[START .. END-1]: the
+     *  sum of the logarithms of the probabilities of each of their
+     *  n-grams. */
+    double score(int[] text, int start, int end) {
+        double result = 0;
+        int size = _alphabet.size();
+        int k = 0;
+        for (int i = start; i < end; i++) {
+            k = k % _span * size + text[i];
+            if (i - start >= _n - 1) {
+                result += _logProb[k];
+            }
+        }
+        return result;
+    }
+
+    /** Return the score of the character indices MAP[SUB[MAP[TEXT[I]] +
+     *  I * SIZE]] for I in 0 .. LEN-1, as for score(int[], int, int),
+     *  where SIZE is my alphabet's size.  This is the score of TEXT
+     *  converted by a machine whose rotors and reflector turn each
+     *  character C at position I into SUB[C + I * SIZE], with plugboard
+     *  MAP, computed without storing the conversion. */
+    double score(int[] text, int len, int[] sub, int[] map) {
+        double result = 0;
+        int size = _alphabet.size();
+        int k = 0;
+        for (int i = 0; i < len; i++) {
+            k = k % _span * size + map[sub[map[text[i]] + i * size]];
+            if (i >= _n - 1) {
+                result += _logProb[k];
+            }
+        }
+        return result;
+    }
+
+    /** Occurrences assumed for an n-gram not counted at all. */
+    private static final double UNSEEN = 0.01;
+
+    /** Alphabet of my n-grams. */
+    private final Alphabet _alphabet;
+
+    /** Number of characters in each n-gram. */
+    private final int _n;
+
+    /** Number of (N-1)-grams. */
+    private final int _span;
+
+    /** Base-10 logarithm of the probability of each n-gram, indexed by
+     *  its rank in lexicographic order. */
+    private final float[] _logProb;
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -15,13 +17,59 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        cycles = cycles.replaceAll("[(]", "");
-        _cycles = cycles.split("\\)[\\s]*");
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+        cycles = cycles.replaceAll("[(\\s]", "");
+        for (String cycle : cycles.split("\\)")) {
+            addCycle(cycle);
+        }
+    }
+
+    /** Set this Permutation to the one taking each index K of ALPHABET
+     *  to MAPPING[K].  MAPPING must contain each index exactly once. */
+    Permutation(int[] mapping, Alphabet alphabet) {
+        if (mapping.length != alphabet.size()) {
+            throw error("permutation has wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = mapping.clone();
+        _inverse = new int[mapping.length];
+        Arrays.fill(_inverse, -1);
+        for (int k = 0; k < mapping.length; k++) {
+            int to = mapping[k];
+            if (to < 0 || to >= mapping.length || _inverse[to] != -1) {
+                throw error("not a permutation");
+            }
+            _inverse[to] = k;
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
      *  c0c1...cm. */
     private void addCycle(String cycle) {
+        int n = cycle.length();
+        for (int i = 0; i < n; i++) {
+            int from = indexOf(cycle.charAt(i));
+            int to = indexOf(cycle.charAt((i + 1) % n));
+            if (_forward[from] != from || _inverse[to] != to) {
+                throw error("character '%c' appears in more than one cycle",
+                            cycle.charAt(i));
+            }
+            _forward[from] = to;
+            _inverse[to] = from;
+        }
+    }
+
+    /** Return the index of cycle character CH in my alphabet. */
+    private int indexOf(char ch) {
+        if (!_alphabet.contains(ch)) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return _alphabet.toInt(ch);
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -35,48 +83,25 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char charOfP = _alphabet.toChar(wrap(p));
-        char newChar = ' ';
-        int indOfPerm = 0;
-        for (int cyc = 0; cyc < _cycles.length; cyc++) {
-            int size = _cycles[cyc].length();
-            for (int i = 0; i < size; i++) {
-                if (_cycles[cyc].charAt(i) == charOfP) {
-                    indOfPerm = (i + 1) % size;
-                    newChar = _cycles[cyc].charAt(indOfPerm);
-                    return _alphabet.toInt(newChar);
-                }
-            }
+        if (p < 0 || p >= _forward.length) {
+            p = wrap(p);
         }
-        return p;
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char charOfP = _alphabet.toChar(wrap(c));
-        char newChar = ' ';
-        int indOfPerm = 0;
-        for (int cyc = 0; cyc < _cycles.length; cyc++) {
-            int size = _cycles[cyc].length();
-            for (int i = size - 1; i >= 0; i--) {
-                if (_cycles[cyc].charAt(i) == charOfP) {
-                    indOfPerm = (i - 1) % size;
-                    if (indOfPerm < 0) {
-                        indOfPerm += size;
-                    }
-                    newChar = _cycles[cyc].charAt(indOfPerm);
-                    return _alphabet.toInt(newChar);
-                }
-            }
+        if (c < 0 || c >= _inverse.length) {
+            c = wrap(c);
         }
-        return c;
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -112,8 +137,11 @@ class Permutation {
     }
 
     /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
+    private final Alphabet _alphabet;
+
+    /** Index of the image of each index under this permutation. */
+    private final int[] _forward;
 
-    /** String array of cycles. */
-    private String[] _cycles;
+    /** Index of the preimage of each index under this permutation. */
+    private final int[] _inverse;
 }
@@ -188,6 +188,18 @@ public class PermutationTest {
         assertEquals('G', v.permute('G'));
     }
 
+    @Test(expected = EnigmaException.class)
+    public void testCharNotInAlphabet() {
+        Alphabet a = new Alphabet("ABCD");
+        new Permutation("(BAE)", a);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedChar() {
+        Alphabet a = new Alphabet("ABCD");
+        new Permutation("(BA) (CA)", a);
+    }
+
     @Test
     public void testDerangement() {
         Alphabet a = new Alphabet("ABCD");
@@ -14,13 +14,24 @@ class Reflector extends FixedRotor {
         _setting = 0;
     }
 
+    /** A reflector with the name and wiring of ROTOR. */
+    Reflector(Reflector rotor) {
+        super(rotor);
+        _setting = 0;
+    }
+
+    @Override
+    Reflector copy() {
+        return new Reflector(this);
+    }
+
     @Override
     boolean reflecting() {
         return true;
     }
 
     @Override
-    int convertForward(int p) {
+    int convertForward(int p, int posn) {
         return this.permutation().permute(p);
     }
 
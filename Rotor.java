@@ -12,6 +12,65 @@ class Rotor {
         _name = name;
         _permutation = perm;
         _setting = 0;
+        if (perm.size() <= MAX_TABLE_SIZE) {
+            _forwardTable = wiringTable(perm, false);
+            _backwardTable = wiringTable(perm, true);
+        } else {
+            _forwardTable = _backwardTable = null;
+        }
+    }
+
+    /** A rotor with the name and wiring of ROTOR, at setting 0.  Any
+     *  precomputed tables are shared with ROTOR. */
+    Rotor(Rotor rotor) {
+        _name = rotor._name;
+        _permutation = rotor._permutation;
+        _setting = 0;
+        _forwardTable = rotor._forwardTable;
+        _backwardTable = rotor._backwardTable;
+    }
+
+    /** Return a new rotor of my kind, with my name, wiring, and notches,
+     *  at setting 0. */
+    Rotor copy() {
+        return new Rotor(this);
+    }
+
+    /** Largest alphabet size for which rotors precompute their wiring at
+     *  every setting; the tables take 8 * size() * size() bytes. */
+    static final int MAX_TABLE_SIZE = 128;
+
+    /** Return the mapping of PERM (or of its inverse, if INVERSE) as seen
+     *  through a rotor at every setting, flattened so that entry
+     *  S * size + P is the conversion of P at setting S. */
+    private static int[] wiringTable(Permutation perm, boolean inverse) {
+        int n = perm.size();
+        int[] table = new int[n * n];
+        for (int s = 0; s < n; s++) {
+            for (int p = 0; p < n; p++) {
+                int contact = perm.wrap(p + s);
+                int exited = inverse ? perm.invert(contact)
+                    : perm.permute(contact);
+                table[s * n + p] = perm.wrap(exited - s);
+            }
+        }
+        return table;
+    }
+
+    /** Return my conversions at every setting, as for convertForward(P,
+     *  POSN), flattened so that entry POSN * size() + P is the conversion
+     *  of P at setting POSN, or null if my alphabet is larger than
+     *  MAX_TABLE_SIZE.  The table is shared by my copies, and must not
+     *  be changed. */
+    int[] forwardTable() {
+        return _forwardTable;
+    }
+
+    /** Return my conversions at every setting, as for convertBackward(E,
+     *  POSN), flattened as for forwardTable(), or null if my alphabet is
+     *  larger than MAX_TABLE_SIZE.  The table must not be changed. */
+    int[] backwardTable() {
+        return _backwardTable;
     }
 
     /** Return my name. */
@@ -51,10 +110,10 @@ class Rotor {
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        if (!alphabet().contains(alphabet().toChar(posn))) {
+        if (posn < 0 || posn >= size()) {
             throw new EnigmaException("Setting out of bounds");
         }
-        _setting = (posn % alphabet().size());
+        _setting = posn;
     }
 
     /** Set setting() to character CPOSN. */
@@ -71,25 +130,50 @@ class Rotor {
      *  convertForward should output the character passing through the
      *  entire rotor from front to back, so entering and then exiting*/
     int convertForward(int p) {
-        int contact = (p + this._setting) % size();
-        int contactExited = _permutation.permute(contact);
-        int positionExited = (contactExited - this._setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
-        }
-        return positionExited;
+        return convertForward(p, setting());
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int contact = (e + _setting) % size();
-        int contactExited = _permutation.invert(contact);
-        int positionExited = (contactExited - _setting) % size();
-        if (positionExited < 0) {
-            positionExited += size();
+        return convertBackward(e, setting());
+    }
+
+    /** Return the conversion of P, as for convertForward(P), that I
+     *  would perform at setting POSN.  Does not depend on or change my
+     *  current setting. */
+    int convertForward(int p, int posn) {
+        if (_forwardTable != null) {
+            return _forwardTable[posn * size() + p];
         }
-        return positionExited;
+        return shift(_permutation.permute(shift(p, posn)), -posn);
+    }
+
+    /** Return the conversion of E, as for convertBackward(E), that I
+     *  would perform at setting POSN.  Does not depend on or change my
+     *  current setting. */
+    int convertBackward(int e, int posn) {
+        if (_backwardTable != null) {
+            return _backwardTable[posn * size() + e];
+        }
+        return shift(_permutation.invert(shift(e, posn)), -posn);
+    }
+
+    /** Return contact P (in 0..size()-1) moved by DELTA positions, where
+     *  -size() < DELTA < size(). */
+    private int shift(int p, int delta) {
+        int r = p + delta;
+        if (r >= size()) {
+            r -= size();
+        } else if (r < 0) {
+            r += size();
+        }
+        return r;
+    }
+
+    /** Return me to setting 0, as when I was made. */
+    void reset() {
+        _setting = 0;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -98,6 +182,19 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be positioned at a notch at setting
+     *  POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
+    /** Return the number of advances needed to bring me from setting
+     *  POSN to a notch (0 if POSN is at a notch), or Integer.MAX_VALUE
+     *  if I have no notches. */
+    int stepsToNotch(int posn) {
+        return Integer.MAX_VALUE;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -115,4 +212,8 @@ class Rotor {
 
     /** Instantiate setting to 0 at beginning. */
     private int _setting;
+
+    /** My conversions at every setting (see wiringTable), or null if my
+     *  alphabet is larger than MAX_TABLE_SIZE. */
+    private final int[] _forwardTable, _backwardTable;
 }
@@ -54,6 +54,23 @@ public class RotorTest {
         assertEquals(9, r2.convertBackward(10));
     }
 
+    @Test
+    public void testRotorWithoutTables() {
+        StringBuilder chars = new StringBuilder();
+        for (char c = 'A'; chars.length() <= Rotor.MAX_TABLE_SIZE; c++) {
+            chars.append(c);
+        }
+        Alphabet a = new Alphabet(chars.toString());
+        Permutation p = new Permutation("(ABC) (DE)", a);
+        Rotor r = new Rotor("I", p);
+        r.set(a.size() - 1);
+        assertEquals(3, r.convertForward(2));
+        assertEquals(2, r.convertForward(1));
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(i, r.convertBackward(r.convertForward(i)));
+        }
+    }
+
     @Test
     public void testFixedRotor() {
         Alphabet a = new Alphabet("ABCD");
@@ -0,0 +1,370 @@
+package enigma;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** An incremental encoding/decoding session, in the manner of
+ *  javax.crypto.Cipher: a message may be passed to update() in pieces of
+ *  any size, and the rotor settings carry over from one piece to the
+ *  next, so the result is the same as converting the whole message at
+ *  once.  doFinal() converts the last piece and then returns to the
+ *  settings the session started with, ready for the next message.  As
+ *  for Machine.convert(String), blanks are copied through unchanged, and
+ *  each character converts to exactly one, so no output is ever held
+ *  back.
+ *
+ *  A session works on a snapshot of a machine (see Machine.newSession),
+ *  so any number of sessions may be taken from one machine, and neither
+ *  changes the other.  A session holds only its rotor settings and a few
+ *  fixed-size scratch buffers, whatever the lengths of its messages.  It
+ *  is not thread-safe.  The stream wrappers returned by reader(),
+ *  writer(), inputStream(), and outputStream() convert whatever passes
+ *  through them with the session, throwing EnigmaException on characters
+ *  not in its alphabet; the byte streams take each byte to be one ASCII
+ *  character, and need an ASCII alphabet (see Alphabet.isAscii).
+ *  @author Pauline Tang
+ */
+final class Session {
+
+    /** A session converting with MACHINE, starting at its settings. */
+    Session(CompiledMachine machine) {
+        _cursor = machine.newCursor().counting();
+        _start = _cursor.positions();
+        _alphabet = machine.alphabet();
+    }
+
+    /** Convert the LEN characters of IN starting at IN[INOFF] into OUT
+     *  starting at OUT[OUTOFF], advancing my rotors.  IN and OUT may be
+     *  the same array.  Returns the number of characters stored in OUT,
+     *  which is LEN. */
+    int update(char[] in, int inOff, int len, char[] out, int outOff) {
+        System.arraycopy(in, inOff, out, outOff, len);
+        convert(out, outOff, outOff + len);
+        return len;
+    }
+
+    /** Convert the remaining characters of IN into OUT, advancing the
+     *  positions of both buffers and my rotors, until IN is exhausted or
+     *  OUT is full.  Returns the number of characters converted. */
+    int update(CharBuffer in, CharBuffer out) {
+        int len = Math.min(in.remaining(), out.remaining());
+        if (out.hasArray()) {
+            int off = out.arrayOffset() + out.position();
+            in.get(out.array(), off, len);
+            convert(out.array(), off, off + len);
+            out.position(out.position() + len);
+        } else {
+            char[] buf = chars();
+            for (int n = len; n > 0; ) {
+                int k = Math.min(n, buf.length);
+                in.get(buf, 0, k);
+                convert(buf, 0, k);
+                out.put(buf, 0, k);
+                n -= k;
+            }
+        }
+        return len;
+    }
+
+    /** Return the conversion of MSG, advancing my rotors. */
+    String update(String msg) {
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length);
+        return new String(buf);
+    }
+
+    /** Convert the LEN bytes of IN starting at IN[INOFF] into OUT starting
+     *  at OUT[OUTOFF], advancing my rotors, where each byte is one ASCII
+     *  character.  IN and OUT may be the same array.  Returns the number
+     *  of bytes stored in OUT, which is LEN. */
+    int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (!_alphabet.isAscii()) {
+            throw error("alphabet is not ASCII");
+        }
+        System.arraycopy(in, inOff, out, outOff, len);
+        char[] buf = chars();
+        for (int i = outOff; i < outOff + len; ) {
+            int k = Math.min(outOff + len - i, buf.length);
+            for (int j = 0; j < k; j++) {
+                buf[j] = (char) (out[i + j] & BYTE_MASK);
+            }
+            convert(buf, 0, k);
+            for (int j = 0; j < k; j++) {
+                out[i + j] = (byte) buf[j];
+            }
+            i += k;
+        }
+        return len;
+    }
+
+    /** As for update(IN, INOFF, LEN, OUT, OUTOFF), then reset(). */
+    int doFinal(char[] in, int inOff, int len, char[] out, int outOff) {
+        try {
+            return update(in, inOff, len, out, outOff);
+        } finally {
+            reset();
+        }
+    }
+
+    /** As for update(IN, OUT), then reset(). */
+    int doFinal(CharBuffer in, CharBuffer out) {
+        try {
+            return update(in, out);
+        } finally {
+            reset();
+        }
+    }
+
+    /** As for update(IN, INOFF, LEN, OUT, OUTOFF), then reset(). */
+    int doFinal(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        try {
+            return update(in, inOff, len, out, outOff);
+        } finally {
+            reset();
+        }
+    }
+
+    /** As for update(MSG), then reset(). */
+    String doFinal(String msg) {
+        try {
+            return update(msg);
+        } finally {
+            reset();
+        }
+    }
+
+    /** Return my rotors to the settings I started with. */
+    void reset() {
+        _cursor.moveTo(_start);
+    }
+
+    /** Return my current rotor settings, indexed by slot. */
+    int[] positions() {
+        return _cursor.positions();
+    }
+
+    /** Return a Reader of the conversion of what IN reads, using me.  It
+     *  does not support mark: mark() does nothing, and reset() and
+     *  skip() throw IOException. */
+    Reader reader(Reader in) {
+        return new FilterReader(in) {
+            @Override
+            public int read() throws IOException {
+                int ch = super.read();
+                return ch == -1 ? -1 : convert((char) ch);
+            }
+
+            @Override
+            public int read(char[] cbuf, int off, int len)
+                throws IOException {
+                int n = super.read(cbuf, off, len);
+                if (n > 0) {
+                    update(cbuf, off, n, cbuf, off);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                throw new IOException("cannot skip a converted stream");
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void mark(int limit) {
+            }
+
+            @Override
+            public void reset() throws IOException {
+                throw new IOException("reset not supported");
+            }
+        };
+    }
+
+    /** Return a Writer that writes the conversion of what it is given to
+     *  OUT, using me. */
+    Writer writer(Writer out) {
+        return new FilterWriter(out) {
+            @Override
+            public void write(int c) throws IOException {
+                out.write(convert((char) c));
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len)
+                throws IOException {
+                char[] buf = chars();
+                for (int i = 0; i < len; ) {
+                    int k = Math.min(len - i, buf.length);
+                    update(cbuf, off + i, k, buf, 0);
+                    out.write(buf, 0, k);
+                    i += k;
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len)
+                throws IOException {
+                char[] buf = chars();
+                for (int i = 0; i < len; ) {
+                    int k = Math.min(len - i, buf.length);
+                    str.getChars(off + i, off + i + k, buf, 0);
+                    update(buf, 0, k, buf, 0);
+                    out.write(buf, 0, k);
+                    i += k;
+                }
+            }
+        };
+    }
+
+    /** Return an InputStream of the conversion of what IN reads, using
+     *  me.  My alphabet must be ASCII.  As for reader(), mark() does
+     *  nothing, and reset() and skip() throw IOException. */
+    InputStream inputStream(InputStream in) {
+        if (!_alphabet.isAscii()) {
+            throw error("alphabet is not ASCII");
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                return b == -1 ? -1 : convert((char) b);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    update(b, off, n, b, off);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                throw new IOException("cannot skip a converted stream");
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void mark(int limit) {
+            }
+
+            @Override
+            public void reset() throws IOException {
+                throw new IOException("reset not supported");
+            }
+        };
+    }
+
+    /** Return an OutputStream that writes the conversion of what it is
+     *  given to OUT, using me.  My alphabet must be ASCII. */
+    OutputStream outputStream(OutputStream out) {
+        if (!_alphabet.isAscii()) {
+            throw error("alphabet is not ASCII");
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(convert((char) (b & BYTE_MASK)));
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                byte[] buf = bytes();
+                for (int i = 0; i < len; ) {
+                    int k = Math.min(len - i, buf.length);
+                    update(b, off + i, k, buf, 0);
+                    out.write(buf, 0, k);
+                    i += k;
+                }
+            }
+        };
+    }
+
+    /** Return the conversion of the single character CH, advancing my
+     *  rotors. */
+    private char convert(char ch) {
+        char[] buf = chars();
+        buf[0] = ch;
+        convert(buf, 0, 1);
+        return buf[0];
+    }
+
+    /** Convert BUF[START .. END-1] in place, advancing my rotors, and
+     *  add the characters converted and the rotors advanced to Metrics.
+     *  Blanks are copied through unchanged. */
+    private void convert(char[] buf, int start, int end) {
+        if (!Metrics.ENABLED) {
+            _cursor.convert(buf, start, end, buf);
+            return;
+        }
+        long steps = _cursor.steps(), doubleSteps = _cursor.doubleSteps();
+        _cursor.convert(buf, start, end, buf);
+        long chars = 0;
+        for (int i = start; i < end; i++) {
+            if (buf[i] != ' ') {
+                chars += 1;
+            }
+        }
+        Metrics.CHARACTERS.add(chars);
+        Metrics.ROTOR_STEPS.add(_cursor.steps() - steps);
+        Metrics.DOUBLE_STEPS.add(_cursor.doubleSteps() - doubleSteps);
+    }
+
+    /** Return my scratch buffer of characters. */
+    private char[] chars() {
+        if (_chars == null) {
+            _chars = new char[SCRATCH_SIZE];
+        }
+        return _chars;
+    }
+
+    /** Return my scratch buffer of bytes. */
+    private byte[] bytes() {
+        if (_bytes == null) {
+            _bytes = new byte[SCRATCH_SIZE];
+        }
+        return _bytes;
+    }
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of my scratch buffers. */
+    private static final int SCRATCH_SIZE = 1 << 12;
+
+    /** My current rotor settings. */
+    private final CompiledMachine.Cursor _cursor;
+
+    /** The rotor settings I started with, indexed by slot. */
+    private final int[] _start;
+
+    /** Alphabet of my machine. */
+    private final Alphabet _alphabet;
+
+    /** Scratch buffers, allocated on first use. */
+    private char[] _chars;
+
+    /** See _chars. */
+    private byte[] _bytes;
+}
@@ -0,0 +1,204 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Session class.
+ *  @author Pauline Tang
+ */
+public class SessionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plugboard of the machines tested. */
+    private static final String PLUGBOARD = "(HQ) (EX) (IP)";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testUpdateInPieces() {
+        String msg = randomMessage(10000);
+        Machine m = navalMachine("AXLE", PLUGBOARD);
+        Session session = m.newSession();
+        String expected = m.convert(msg);
+        char[] in = msg.toCharArray();
+        char[] out = new char[in.length];
+        int[] pieces = {1, 7, 300, 5000, 4692};
+        int off = 0;
+        for (int piece : pieces) {
+            assertEquals(piece, session.update(in, off, piece, out, off));
+            off += piece;
+        }
+        assertEquals(expected, new String(out));
+    }
+
+    @Test
+    public void testDoFinal() {
+        String msg = randomMessage(500);
+        Machine m = navalMachine("AXLE", PLUGBOARD);
+        Session session = m.newSession();
+        String expected = m.convert(msg);
+        int[] start = session.positions();
+        assertEquals(expected.substring(0, 100),
+                     session.update(msg.substring(0, 100)));
+        assertEquals(expected.substring(100),
+                     session.doFinal(msg.substring(100)));
+        assertArrayEquals(start, session.positions());
+        assertEquals(expected, session.doFinal(msg));
+    }
+
+    @Test
+    public void testIndependent() {
+        Machine m = navalMachine("AXLE", PLUGBOARD);
+        Session first = m.newSession();
+        Session second = m.newSession();
+        String expected =
+            navalMachine("AXLE", PLUGBOARD).convert("HELLO WORLD");
+        assertEquals(expected, first.update("HELLO WORLD"));
+        m.setRotors("ZZZZ");
+        assertEquals(expected, second.update("HELLO WORLD"));
+    }
+
+    @Test
+    public void testCharBuffers() {
+        String msg = randomMessage(9000);
+        String expected = navalMachine("AXLE", PLUGBOARD).convert(msg);
+        Session session = navalMachine("AXLE", PLUGBOARD).newSession();
+        CharBuffer in = CharBuffer.wrap(msg);
+        CharBuffer out = CharBuffer.allocate(5000);
+        assertEquals(5000, session.update(in, out));
+        out.flip();
+        StringBuilder result = new StringBuilder(out);
+        out = ByteBuffer.allocateDirect(2 * 5000).asCharBuffer();
+        assertEquals(4000, session.doFinal(in, out));
+        out.flip();
+        result.append(out);
+        assertEquals(expected, result.toString());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void testBytes() {
+        String msg = randomMessage(9000);
+        String expected = navalMachine("AXLE", PLUGBOARD).convert(msg);
+        byte[] buf = msg.getBytes(StandardCharsets.US_ASCII);
+        Session session = navalMachine("AXLE", PLUGBOARD).newSession();
+        session.update(buf, 0, 1000, buf, 0);
+        session.doFinal(buf, 1000, buf.length - 1000, buf, 1000);
+        assertEquals(expected, new String(buf, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testOverlappingBytes() {
+        String msg = randomMessage(9000);
+        String expected = navalMachine("AXLE", PLUGBOARD).convert(msg);
+        for (int shift : new int[] {-3, 3, -5000, 5000}) {
+            int from = Math.max(0, -shift);
+            byte[] buf = new byte[msg.length() + Math.abs(shift)];
+            System.arraycopy(msg.getBytes(StandardCharsets.US_ASCII), 0,
+                             buf, from, msg.length());
+            navalMachine("AXLE", PLUGBOARD).newSession()
+                .update(buf, from, msg.length(), buf, from + shift);
+            assertEquals(msg("shift", "%d", shift), expected,
+                         new String(buf, from + shift, msg.length(),
+                                    StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testMarkUnsupported() throws IOException {
+        Session session = navalMachine("AXLE", PLUGBOARD).newSession();
+        Reader reader = session.reader(new StringReader("HELLO"));
+        InputStream in = session.inputStream(
+            new ByteArrayInputStream("HELLO".getBytes(
+                StandardCharsets.US_ASCII)));
+        assertFalse(reader.markSupported());
+        assertFalse(in.markSupported());
+        reader.mark(10);
+        in.mark(10);
+        try {
+            reader.reset();
+            fail("reset a converted Reader");
+        } catch (IOException excp) {
+            /* Expected. */
+        }
+        try {
+            in.reset();
+            fail("reset a converted InputStream");
+        } catch (IOException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testReaderWriter() throws IOException {
+        String msg = randomMessage(10000);
+        String expected = navalMachine("AXLE", PLUGBOARD).convert(msg);
+        Reader reader = navalMachine("AXLE", PLUGBOARD).newSession()
+            .reader(new StringReader(msg));
+        StringBuilder read = new StringBuilder();
+        read.append((char) reader.read());
+        char[] buf = new char[777];
+        for (int n = reader.read(buf); n != -1; n = reader.read(buf)) {
+            read.append(buf, 0, n);
+        }
+        assertEquals(expected, read.toString());
+
+        StringWriter written = new StringWriter();
+        Writer writer =
+            navalMachine("AXLE", PLUGBOARD).newSession().writer(written);
+        writer.write(msg.charAt(0));
+        writer.write(msg, 1, 4999);
+        writer.write(msg.substring(5000).toCharArray());
+        writer.close();
+        assertEquals(expected, written.toString());
+    }
+
+    @Test
+    public void testStreams() throws IOException {
+        String msg = randomMessage(10000);
+        byte[] expected = navalMachine("AXLE", PLUGBOARD).convert(msg)
+            .getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = msg.getBytes(StandardCharsets.US_ASCII);
+        InputStream in = navalMachine("AXLE", PLUGBOARD).newSession()
+            .inputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        read.write(in.read());
+        in.transferTo(read);
+        assertArrayEquals(expected, read.toByteArray());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream out = navalMachine("AXLE", PLUGBOARD).newSession()
+            .outputStream(written);
+        out.write(bytes[0]);
+        out.write(bytes, 1, bytes.length - 1);
+        out.close();
+        assertArrayEquals(expected, written.toByteArray());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadCharacter() {
+        navalMachine("AXLE", PLUGBOARD).newSession().update("HELLO, WORLD");
+    }
+}
@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +128,62 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** Return the naval rotor NAME, which moves and has notches NOTCHES
+     *  if NOTCHES is not null. */
+    static Rotor navalRotor(String name, String notches) {
+        Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+        return notches == null ? new FixedRotor(name, perm)
+            : new MovingRotor(name, perm, notches);
+    }
+
+    /** Return a configuration with five slots and three pawls, and the
+     *  naval reflector B, rotor Beta, and rotors I, III, and IV. */
+    static Configuration navalConfiguration() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(navalRotor("Beta", null));
+        rotors.add(navalRotor("I", "Q"));
+        rotors.add(navalRotor("III", "V"));
+        rotors.add(navalRotor("IV", "J"));
+        return new Configuration(UPPER, 5, 3, rotors);
+    }
+
+    /** Return a machine of navalConfiguration() with the rotors B, Beta,
+     *  III, IV, and I inserted, set to SETTING, and with plugboard
+     *  PLUGBOARD. */
+    static Machine navalMachine(String setting, String plugboard) {
+        Machine m = navalConfiguration().newMachine();
+        m.reconfigure(new String[] {"B", "Beta", "III", "IV", "I"}, setting,
+                      plugboard);
+        return m;
+    }
+
+    /** Return a configuration with four slots and two pawls, and the
+     *  naval reflectors B and C, rotor Beta, and rotors I, II, and III. */
+    static Configuration smallConfiguration() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : new String[] {"B", "C"}) {
+            rotors.add(new Reflector(name, new Permutation(NAVALA.get(name),
+                                                           UPPER)));
+        }
+        rotors.add(navalRotor("Beta", null));
+        rotors.add(navalRotor("I", "Q"));
+        rotors.add(navalRotor("II", "E"));
+        rotors.add(navalRotor("III", "V"));
+        return new Configuration(UPPER, 4, 2, rotors);
+    }
+
+    /** Return a random message of LEN upper-case letters and blanks, the
+     *  same for every call with the same LEN. */
+    static String randomMessage(int len) {
+        Random random = new Random(len);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            msg.append(random.nextInt(6) == 0 ? ' '
+                       : UPPER_STRING.charAt(random.nextInt(26)));
+        }
+        return msg.toString();
+    }
+
 }
@@ -10,8 +10,18 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class, RotorTest.class));
+        System.exit(textui.runClasses(AlphabetTest.class,
+                                      PermutationTest.class,
+                                      MovingRotorTest.class, RotorTest.class,
+                                      MachineTest.class,
+                                      BinaryFormatTest.class,
+                                      CribAttackTest.class, BombeTest.class,
+                                      CiphertextAttackTest.class,
+                                      SessionTest.class,
+                                      ConfigRegistryTest.class,
+                                      ConfigCacheTest.class,
+                                      EnigmaServiceTest.class, MainTest.class,
+                                      MetricsTest.class));
     }
 
 }